@@ -1,18 +1,52 @@
 package gitlet;
 
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.Serializable;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Formatter;
+import java.util.Iterator;
+import java.util.List;
 
 /**
  * Blob object that stores the contents of files.
  * each of the Blob objects are stored in objects files.
+ * A blob file holds a "blob SIZE\0" header followed by the raw bytes
+ * of the file, and is named by the SHA-1 of exactly those bytes.
+ * Those bytes are stored compressed; see Compression.
+ * Contents are streamed through a fixed-size buffer, so storing or
+ * restoring a file never holds the whole file in memory.
+ * Files of at least Chunker.THRESHOLD bytes are split into chunks,
+ * each stored once as a blob of its own, and are named by a chunk-list
+ * blob holding a "chunks SIZE\0" header and one chunk code per line.
+ * An edit to a large file then only stores the chunks it touched.
+ * A file is read once: its contents are hashed as they are written to
+ * a temporary file, which is dropped when the store already holds a
+ * blob with that code. Chunks are hashed in memory, and only written
+ * when the store lacks them.
  * @author Shelden Shi
  */
-public class Blob implements Serializable {
-    /** contents of files. */
-    private String contents;
+public class Blob {
+    /** Size of the buffer used to stream file contents. */
+    static final int BUFFER_SIZE = 8192;
+
+    /** sha1 code of this blob. */
+    private String code;
+
+    /** number of content bytes in this blob. */
+    private long size;
 
     /**
      * Constructor.
@@ -20,8 +54,7 @@ public class Blob implements Serializable {
      * @throws IOException
      */
     public Blob(File file) throws IOException {
-        contents = Utils.readContentsAsString(file);
-        storeBlob();
+        storeBlob(file);
     }
 
     /**
@@ -30,28 +63,173 @@ public class Blob implements Serializable {
      * @throws IOException
      */
     public Blob(String fileName) throws IOException {
-        File file = new File(fileName);
-        contents = Utils.readContentsAsString(file);
-        storeBlob();
+        this(Files.resolve(fileName));
     }
 
-    /** Creates a file named by Blob Object's code.
-     * And write this Blob into the file.
+    /** Streams FILE into the objects folder, hashing it on the way,
+     * unless the store already holds a blob with the same code.
+     * @param file file that we are storing contents from
      * @throws IOException
      */
-    public void storeBlob() throws IOException {
-        String code = Utils.sha1(Utils.serialize(this));
-        File file = Utils.join(Files.OBJECTS, code);
-        file.createNewFile();
-        Utils.writeObject(file, this);
+    private void storeBlob(File file) throws IOException {
+        ObjectStore store = ObjectStore.local();
+        size = file.length();
+        if (size >= Chunker.THRESHOLD) {
+            try (InputStream in = new FileInputStream(file)) {
+                code = chunk(in, size, store);
+            }
+            return;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            code = store(in, size, store);
+        }
     }
 
     /**
-     * get contents of a blob object(file contents).
-     * @return contents in as a string.
+     * Returns the code FILE would be stored under, without storing it.
+     * @param file a file
+     * @return sha1 code of its blob
+     * @throws IOException
+     */
+    public static String hash(File file) throws IOException {
+        long size = file.length();
+        try (InputStream in = new FileInputStream(file)) {
+            if (size >= Chunker.THRESHOLD) {
+                return chunk(in, size, null);
+            }
+            MessageDigest md = newDigest();
+            md.update(header(size));
+            byte[] buf = new byte[BUFFER_SIZE];
+            long total = 0;
+            for (int n = in.read(buf); n != -1; n = in.read(buf)) {
+                md.update(buf, 0, n);
+                total += n;
+            }
+            if (total != size) {
+                throw Utils.error("File changed while being read.");
+            }
+            return hex(md.digest());
+        }
+    }
+
+    /** Splits the SIZE bytes from IN into chunks, stores the chunks that
+     * STORE does not hold yet, then stores the list of chunks.
+     * @param in contents of the file
+     * @param size number of bytes IN holds
+     * @param store object store of a repo, or null to only hash
+     * @return sha1 code of the chunk list
+     * @throws IOException
+     */
+    static String chunk(InputStream in, long size, ObjectStore store)
+            throws IOException {
+        ByteArrayOutputStream list = new ByteArrayOutputStream();
+        byte[] buf = new byte[Chunker.MAX];
+        int n = 0;
+        long total = 0;
+        while (true) {
+            n += in.readNBytes(buf, n, buf.length - n);
+            if (n == 0) {
+                break;
+            }
+            int cut = Chunker.cut(buf, n);
+            byte[] header = header(cut);
+            MessageDigest md = newDigest();
+            md.update(header);
+            md.update(buf, 0, cut);
+            String chunk = hex(md.digest());
+            if (store != null && store.needsWrite(ObjectStore.BLOB, chunk)) {
+                writeLoose(store, chunk, header, buf, cut);
+            }
+            list.write((chunk + "\n").getBytes(StandardCharsets.UTF_8));
+            total += cut;
+            System.arraycopy(buf, cut, buf, 0, n - cut);
+            n -= cut;
+        }
+        if (total != size) {
+            throw Utils.error("File changed while being read.");
+        }
+        byte[] header = ("chunks " + size + "\0")
+                .getBytes(StandardCharsets.UTF_8);
+        byte[] body = list.toByteArray();
+        String code = Utils.sha1(header, body);
+        if (store != null && store.needsWrite(ObjectStore.BLOB, code)) {
+            writeLoose(store, code, header, body, body.length);
+        }
+        return code;
+    }
+
+    /** Writes a loose blob holding HEADER and the first LENGTH bytes of
+     * DATA to STORE, through a temporary file that is renamed into place.
+     * @param store object store of a repo
+     * @param code sha1 code of the blob
+     * @param header header of the blob
+     * @param data contents of the blob
+     * @param length number of bytes of DATA to write
+     * @throws IOException
+     */
+    private static void writeLoose(ObjectStore store, String code,
+                                   byte[] header, byte[] data, int length)
+            throws IOException {
+        File objects = store.dir(ObjectStore.BLOB);
+        File tmp = File.createTempFile("blob", null, objects);
+        try {
+            try (OutputStream out = Compression.deflate(
+                    new FileOutputStream(tmp))) {
+                out.write(header);
+                out.write(data, 0, length);
+            }
+            java.nio.file.Files.move(tmp.toPath(),
+                    Files.newObjectFile(objects, code).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            store.added(code);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /** Streams SIZE bytes from IN into a temporary file in STORE while
+     * hashing them, then renames the temporary file to the blob's code
+     * unless STORE already holds that blob.
+     * @param in contents of the blob
+     * @param size number of bytes IN holds
+     * @param store object store of a repo
+     * @return sha1 code of the blob
+     * @throws IOException
      */
-    public String getContents() {
-        return contents;
+    static String store(InputStream in, long size, ObjectStore store)
+            throws IOException {
+        File objects = store.dir(ObjectStore.BLOB);
+        MessageDigest md = newDigest();
+        byte[] header = header(size);
+        md.update(header);
+        File tmp = File.createTempFile("blob", null, objects);
+        try (OutputStream out = Compression.deflate(
+                new FileOutputStream(tmp))) {
+            out.write(header);
+            byte[] buf = new byte[BUFFER_SIZE];
+            long total = 0;
+            for (int n = in.read(buf); n != -1; n = in.read(buf)) {
+                md.update(buf, 0, n);
+                out.write(buf, 0, n);
+                total += n;
+            }
+            if (total != size) {
+                throw Utils.error("File changed while being read.");
+            }
+        } catch (IOException | GitletException excp) {
+            tmp.delete();
+            throw excp;
+        }
+        String code = hex(md.digest());
+        if (!store.needsWrite(ObjectStore.BLOB, code)) {
+            tmp.delete();
+        } else {
+            File dest = Files.newObjectFile(objects, code);
+            java.nio.file.Files.move(tmp.toPath(), dest.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            store.added(code);
+        }
+        return code;
     }
 
     /**
@@ -60,31 +238,199 @@ public class Blob implements Serializable {
      * @return true of false.
      */
     public boolean equals(String blobCode) {
-        if (!code().equals(blobCode)) {
-            return false;
+        return code.equals(blobCode);
+    }
+
+    /**
+     * returns sha1 code of a blob object.
+     * @return sha1 code
+     */
+    public String code() {
+        return code;
+    }
+
+    /**
+     * returns the number of bytes in this blob.
+     * @return size of the contents
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Opens the contents of the blob with the given code, positioned
+     * just past its header. The chunks of a chunk list are opened one
+     * after the other as the stream reaches them.
+     * @param blobCode sha1 code of a blob.
+     * @return a stream of the file contents.
+     * @throws IOException
+     */
+    public static InputStream open(String blobCode) throws IOException {
+        InputStream in = ObjectStore.local().open(ObjectStore.BLOB, blobCode);
+        String header = readHeader(in, blobCode);
+        if (!header.startsWith("chunks ")) {
+            return in;
+        }
+        Iterator<String> chunks = readChunks(in).iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return chunks.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                try {
+                    return open(chunks.next());
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the loose files of the blob with the given code and, if it
+     * is a chunk list, of its chunks. Those held by a pack have no loose
+     * file, so some of the files returned may not exist.
+     * @param store object store holding the blob
+     * @param blobCode sha1 code of a blob
+     * @return loose files
+     * @throws IOException
+     */
+    static List<File> files(ObjectStore store, String blobCode)
+            throws IOException {
+        File objects = store.dir(ObjectStore.BLOB);
+        List<File> result = new ArrayList<>();
+        result.add(Files.objectFile(objects, blobCode));
+        for (String chunk : chunks(store, blobCode)) {
+            result.add(Files.objectFile(objects, chunk));
         }
-        return true;
+        return result;
     }
 
     /**
-     * Gets blob objects from given remoteRepo.
-     * @param remoteRepo where the blob objects from.
-     * @param blobID which blob object to get.
-     * @return a blob obj.
+     * Returns the chunks of the blob with the given code.
+     * @param store object store holding the blob
+     * @param blobCode sha1 code of a blob
+     * @return codes of its chunks, in order, or an empty list if the blob
+     *         is not a chunk list
+     * @throws IOException
      */
-    public static Blob getRemoteBlob(File remoteRepo, String blobID) {
-        File objects  = Utils.join(remoteRepo, "objects");
-        File blobFile = Utils.join(objects, blobID);
-        Blob blob = Utils.readObject(blobFile, Blob.class);
-        return blob;
+    static List<String> chunks(ObjectStore store, String blobCode)
+            throws IOException {
+        InputStream in = store.open(ObjectStore.BLOB, blobCode);
+        if (!readHeader(in, blobCode).startsWith("chunks ")) {
+            in.close();
+            return new ArrayList<>();
+        }
+        return readChunks(in);
     }
 
     /**
-     * returns sha1 code of a blob object.
+     * Reads the header of a blob from IN, up to and including its 0 byte.
+     * @param in stream of a blob
+     * @param blobCode sha1 code of the blob
+     * @return the header
+     * @throws IOException
+     */
+    private static String readHeader(InputStream in, String blobCode)
+            throws IOException {
+        StringBuilder header = new StringBuilder();
+        for (int c = in.read(); c != 0; c = in.read()) {
+            if (c == -1) {
+                in.close();
+                throw Utils.error("Corrupt blob %s.", blobCode);
+            }
+            header.append((char) c);
+        }
+        return header.toString();
+    }
+
+    /**
+     * Reads the chunk codes of a chunk list from IN and closes it.
+     * @param in stream of a chunk list, positioned past its header
+     * @return chunk codes
+     * @throws IOException
+     */
+    private static List<String> readChunks(InputStream in)
+            throws IOException {
+        try (in) {
+            String list = new String(in.readAllBytes(),
+                    StandardCharsets.UTF_8);
+            return new ArrayList<>(Arrays.asList(list.split("\n")));
+        }
+    }
+
+    /**
+     * Writes the contents of the blob with the given code to FILE.
+     * @param blobCode sha1 code of a blob.
+     * @param file file that is going to be overwriten.
+     */
+    public static void writeTo(String blobCode, File file) {
+        try (InputStream in = open(blobCode);
+             OutputStream out = new FileOutputStream(file)) {
+            in.transferTo(out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * get contents of a blob object(file contents).
+     * @param blobCode sha1 code of a blob.
+     * @return contents in as a string.
+     */
+    public static String getContents(String blobCode) {
+        String key = ObjectStore.BLOB + blobCode;
+        String contents = ObjectCache.get(key, null, String.class);
+        if (contents != null) {
+            return contents;
+        }
+        try (InputStream in = open(blobCode)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            in.transferTo(out);
+            contents = out.toString(StandardCharsets.UTF_8);
+            ObjectCache.put(key, null, contents, out.size());
+            return contents;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Returns the header that prefixes SIZE bytes of contents.
+     * @param size number of content bytes
+     * @return header bytes
+     */
+    private static byte[] header(long size) {
+        return ("blob " + size + "\0").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a new SHA-1 digest.
+     * @return message digest
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(
+                    "System does not support SHA-1");
+        }
+    }
+
+    /**
+     * Formats a digest as a hexadecimal numeral.
+     * @param digest digest bytes
      * @return sha1 code
      */
-    public String code() {
-        return Utils.sha1(Utils.serialize(this));
+    private static String hex(byte[] digest) {
+        Formatter result = new Formatter();
+        for (byte b : digest) {
+            result.format("%02x", b);
+        }
+        return result.toString();
     }
 
 }
@@ -0,0 +1,166 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Bloom filter over the sha1 codes of the objects of a repository.
+ * It never misses a code that was added, so a negative answer lets a
+ * write skip looking the object up on disk, while a positive answer
+ * still has to be checked against the store.
+ * The file holds the number of codes added, the number of words of
+ * the bit array, then the words.
+ * @author Shelden Shi
+ */
+class BloomFilter {
+    /** Number of bits set for each code. */
+    private static final int HASHES = 7;
+
+    /** Bits kept per code, which gives about 1% false positives. */
+    private static final int BITS_PER_CODE = 10;
+
+    /** Smallest bit array, in 64-bit words. */
+    private static final int MIN_WORDS = 1 << 10;
+
+    /** bit array. */
+    private final long[] words;
+
+    /** number of codes added. */
+    private int count;
+
+    /**
+     * Constructor of an empty filter.
+     * @param expected number of codes the filter should hold
+     */
+    BloomFilter(int expected) {
+        long bits = (long) expected * BITS_PER_CODE * 2;
+        words = new long[(int) Math.max(MIN_WORDS,
+                Math.min(Integer.MAX_VALUE / 64, bits / 64 + 1))];
+    }
+
+    /**
+     * Constructor of a filter read from a file.
+     * @param words bit array
+     * @param count number of codes added
+     */
+    private BloomFilter(long[] words, int count) {
+        this.words = words;
+        this.count = count;
+    }
+
+    /**
+     * Reads the filter stored in FILE.
+     * @param file a filter file
+     * @return the filter, or null if FILE is missing or corrupt
+     */
+    static BloomFilter read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            int count = in.readInt();
+            int length = in.readInt();
+            if (count < 0 || length < MIN_WORDS
+                    || (long) length * 8 + 8 != file.length()) {
+                return null;
+            }
+            long[] words = new long[length];
+            for (int i = 0; i < length; i += 1) {
+                words[i] = in.readLong();
+            }
+            return new BloomFilter(words, count);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes this filter to FILE, through a temporary file.
+     * @param file a filter file
+     * @throws IOException
+     */
+    void write(File file) throws IOException {
+        File tmp = File.createTempFile("bloom", null, file.getParentFile());
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(count);
+                out.writeInt(words.length);
+                for (long word : words) {
+                    out.writeLong(word);
+                }
+            }
+            java.nio.file.Files.move(tmp.toPath(), file.toPath(),
+                    java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Adds CODE to this filter.
+     * @param code sha1 code of an object
+     */
+    void add(String code) {
+        long h1 = high(code);
+        long h2 = low(code);
+        for (int i = 0; i < HASHES; i += 1) {
+            long bit = Long.remainderUnsigned(h1 + i * h2,
+                    (long) words.length * 64);
+            words[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        count += 1;
+    }
+
+    /**
+     * Checks if CODE may have been added.
+     * @param code sha1 code of an object
+     * @return false only if CODE was never added
+     */
+    boolean mightContain(String code) {
+        long h1 = high(code);
+        long h2 = low(code);
+        for (int i = 0; i < HASHES; i += 1) {
+            long bit = Long.remainderUnsigned(h1 + i * h2,
+                    (long) words.length * 64);
+            if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if this filter holds more codes than it was sized for, so
+     * that it should be rebuilt larger.
+     * @return true iff the filter is full
+     */
+    boolean isFull() {
+        return (long) count * BITS_PER_CODE > (long) words.length * 64;
+    }
+
+    /**
+     * Returns the first 64 bits of CODE.
+     * @param code sha1 code
+     * @return bits
+     */
+    private static long high(String code) {
+        return Long.parseUnsignedLong(code.substring(0, 16), 16);
+    }
+
+    /**
+     * Returns the next 64 bits of CODE, made odd.
+     * @param code sha1 code
+     * @return bits
+     */
+    private static long low(String code) {
+        return Long.parseUnsignedLong(code.substring(16, 32), 16) | 1;
+    }
+}
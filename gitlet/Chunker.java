@@ -0,0 +1,68 @@
+package gitlet;
+
+import java.util.Random;
+
+/**
+ * Content-defined chunking of large files, in the style of FastCDC.
+ * A gear hash rolls over the bytes and a chunk ends where its top bits
+ * are all zero, so an edit only moves the chunk boundaries near it and
+ * the chunks before and after it keep their codes.
+ * @author Shelden Shi
+ */
+class Chunker {
+    /** Files at least this long are stored as chunks. */
+    static final long THRESHOLD = 1 << 20;
+
+    /** Smallest chunk, except for the last one. */
+    static final int MIN = 16 << 10;
+
+    /** Chunk length the cut points are tuned for. */
+    static final int AVG = 64 << 10;
+
+    /** Largest chunk. */
+    static final int MAX = 256 << 10;
+
+    /** Mask used before AVG bytes, which makes a cut less likely. */
+    private static final long MASK_SMALL = -1L << (64 - 18);
+
+    /** Mask used after AVG bytes, which makes a cut more likely. */
+    private static final long MASK_LARGE = -1L << (64 - 14);
+
+    /** Random value added to the hash for each byte value. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6769746c6574L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * Returns the length of the chunk that starts DATA.
+     * @param data bytes to chunk
+     * @param n number of bytes of DATA to look at, at most MAX
+     * @return length of the first chunk
+     */
+    static int cut(byte[] data, int n) {
+        if (n <= MIN) {
+            return n;
+        }
+        long hash = 0;
+        int normal = Math.min(AVG, n);
+        int i = MIN;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < n; i += 1) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return n;
+    }
+}
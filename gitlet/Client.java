@@ -0,0 +1,195 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Collections;
+import java.util.EnumSet;
+
+import jdk.net.ExtendedSocketOptions;
+
+/**
+ * Runs a gitlet command through the daemon, so that the command does
+ * not pay for starting a JVM that loads and warms up all of gitlet.
+ * Sends the working directory and the arguments, then copies what the
+ * daemon sends back to standard output and standard error, and exits
+ * with the status of the command. When no daemon is listening, runs the
+ * command itself, as it does the commands that never end, watch and
+ * daemon.
+ * The daemon sends frames made of a kind, OUT, ERR or EXIT, and an int,
+ * which is the number of bytes that follow for OUT and ERR, and the exit
+ * status for EXIT, the last frame.
+ * The socket is named by the gitlet.socket system property, and is
+ * gitlet.sock in a folder only its user may enter by default:
+ * XDG_RUNTIME_DIR, or gitlet-USER in the temporary folder. Either end
+ * hangs up on a peer run by another user, where the platform tells.
+ * @author Shelden Shi
+ */
+public class Client {
+    /** Kind of a frame of standard output. */
+    static final int OUT = 1;
+
+    /** Kind of a frame of standard error. */
+    static final int ERR = 2;
+
+    /** Kind of the frame ending a command. */
+    static final int EXIT = 3;
+
+    /** Usage: java gitlet.Client ARGS, where ARGS contains
+     *  <COMMAND> <OPERAND> .... */
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && (args[0].equals("watch")
+                || args[0].equals("daemon"))) {
+            Main.main(args);
+            return;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(
+                    UnixDomainSocketAddress.of(socket()));
+        } catch (IOException excp) {
+            Main.main(args);
+            return;
+        }
+        if (!sameUser(channel)) {
+            channel.close();
+            Main.main(args);
+            return;
+        }
+        int status;
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(
+                            Channels.newOutputStream(channel)));
+            out.writeUTF(System.getProperty("user.dir"));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            status = copy(new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(channel))));
+        }
+        System.exit(status);
+    }
+
+    /**
+     * Returns the path of the socket of the daemon.
+     * @return socket path
+     * @throws IOException if the default folder is not private
+     */
+    static Path socket() throws IOException {
+        String path = System.getProperty("gitlet.socket");
+        if (path != null) {
+            return Path.of(path);
+        }
+        return folder().resolve("gitlet.sock");
+    }
+
+    /**
+     * Returns the folder of the socket, creating it if needed, once
+     * checked to be a folder that belongs to this user and that no one
+     * else may enter.
+     * @return private folder
+     * @throws IOException if there is no such folder
+     */
+    private static Path folder() throws IOException {
+        String runtime = System.getenv("XDG_RUNTIME_DIR");
+        Path dir;
+        if (runtime != null && !runtime.isEmpty()) {
+            dir = Path.of(runtime);
+        } else {
+            dir = Path.of(System.getProperty("java.io.tmpdir"),
+                    "gitlet-" + System.getProperty("user.name"));
+            if (!java.nio.file.Files.exists(dir, LinkOption.NOFOLLOW_LINKS)) {
+                java.nio.file.Files.createDirectory(dir,
+                        PosixFilePermissions.asFileAttribute(
+                                PosixFilePermissions.fromString(
+                                        "rwx------")));
+            }
+        }
+        PosixFileAttributes attrs = java.nio.file.Files.readAttributes(dir,
+                PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        if (!attrs.isDirectory() || !attrs.owner().equals(user())
+                || !Collections.disjoint(attrs.permissions(), EnumSet.of(
+                        PosixFilePermission.GROUP_READ,
+                        PosixFilePermission.GROUP_WRITE,
+                        PosixFilePermission.GROUP_EXECUTE,
+                        PosixFilePermission.OTHERS_READ,
+                        PosixFilePermission.OTHERS_WRITE,
+                        PosixFilePermission.OTHERS_EXECUTE))) {
+            throw new IOException(dir + " is not private to "
+                    + System.getProperty("user.name") + ".");
+        }
+        return dir;
+    }
+
+    /**
+     * Returns the user running this gitlet.
+     * @return user
+     * @throws IOException
+     */
+    static UserPrincipal user() throws IOException {
+        return FileSystems.getDefault().getUserPrincipalLookupService()
+                .lookupPrincipalByName(System.getProperty("user.name"));
+    }
+
+    /**
+     * Checks that the other end of CHANNEL is run by this user. Where
+     * the platform does not tell, the folder of the socket stands guard.
+     * @param channel connected Unix domain socket
+     * @return false iff the peer is run by another user
+     * @throws IOException
+     */
+    static boolean sameUser(SocketChannel channel) throws IOException {
+        try {
+            return channel.getOption(ExtendedSocketOptions.SO_PEERCRED)
+                    .user().equals(user());
+        } catch (UnsupportedOperationException excp) {
+            return true;
+        }
+    }
+
+    /**
+     * Copies the frames sent by the daemon to standard output and
+     * standard error, until the last one.
+     * @param in stream from the daemon
+     * @return exit status of the command
+     * @throws IOException
+     */
+    private static int copy(DataInputStream in) throws IOException {
+        byte[] buf = new byte[8192];
+        while (true) {
+            int kind = in.readByte();
+            int length = in.readInt();
+            if (kind == EXIT) {
+                System.out.flush();
+                System.err.flush();
+                return length;
+            }
+            PrintStream dest = kind == ERR ? System.err : System.out;
+            while (length > 0) {
+                int n = in.read(buf, 0, Math.min(length, buf.length));
+                if (n == -1) {
+                    throw new EOFException("Daemon went away.");
+                }
+                dest.write(buf, 0, n);
+                length -= n;
+            }
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary encoding of commits, trees, the stage and the index, written
+ * by hand instead of through Java serialization, so that decoding needs
+ * no reflection and the code of a commit only depends on what it
+ * records.
+ * An encoded object starts with the bytes "GL", its kind and the
+ * version of its layout as a varint. Numbers are varints, negative ones
+ * zigzag-encoded, strings are a varint length followed by UTF-8 and
+ * codes are their 20 raw bytes.
+ * Objects written by older gitlets start with the Java serialization
+ * magic number instead, and are still read through it.
+ * @author Shelden Shi
+ */
+class Codec {
+    /** Kind of an encoded commit. */
+    static final byte COMMIT = 1;
+
+    /** Kind of an encoded stage. */
+    static final byte STAGE = 2;
+
+    /** Kind of an encoded tree. */
+    static final byte TREE = 3;
+
+    /** Kind of an encoded index. */
+    static final byte INDEX = 4;
+
+    /** First two bytes of an encoded object, "GL". */
+    private static final int MAGIC = 0x474c;
+
+    /** First two bytes of a Java-serialized object. */
+    private static final int SERIAL_MAGIC = 0xACED;
+
+    /** An object that can be encoded. */
+    interface Encodable {
+        /**
+         * Returns the encoding of this object.
+         * @return bytes, starting with the header
+         */
+        byte[] encode();
+    }
+
+    /**
+     * Writes OBJ to FILE, compressed.
+     * @param file destination
+     * @param obj object to write
+     */
+    static void write(File file, Encodable obj) {
+        Utils.writeContents(file, Compression.compress(obj.encode()));
+    }
+
+    /**
+     * Reads an object from FILE, which may be compressed.
+     * @param file a file written by write or by Utils.writeObject
+     * @param expectedClass Commit, Stage or Tree
+     * @param <T> class of the object
+     * @return the object
+     */
+    static <T> T read(File file, Class<T> expectedClass) {
+        try (InputStream in = Compression.inflate(
+                new FileInputStream(file))) {
+            return decode(in.readAllBytes(), expectedClass);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Decodes an object, whether encoded or Java-serialized.
+     * @param data uncompressed bytes of the object
+     * @param expectedClass Commit, Stage or Tree
+     * @param <T> class of the object
+     * @return the object
+     */
+    static <T> T decode(byte[] data, Class<T> expectedClass) {
+        if (data.length >= 2
+                && ((data[0] & 0xff) << 8 | data[1] & 0xff) == SERIAL_MAGIC) {
+            return expectedClass.cast(Utils.readObject(
+                    new ByteArrayInputStream(data), Serializable.class));
+        }
+        Object result;
+        if (expectedClass == Commit.class) {
+            result = Commit.decode(new Reader(data, COMMIT));
+        } else if (expectedClass == Stage.class) {
+            result = Stage.decode(new Reader(data, STAGE));
+        } else if (expectedClass == Tree.class) {
+            result = Tree.decode(new Reader(data, TREE));
+        } else {
+            throw Utils.error("Cannot decode %s.",
+                    expectedClass.getSimpleName());
+        }
+        return expectedClass.cast(result);
+    }
+
+    /** Builds the encoding of one object. */
+    static class Writer {
+        /** bytes written so far. */
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        /** Constructor, for records that follow an object and have no
+         * header of their own. */
+        Writer() {
+        }
+
+        /**
+         * Constructor. Writes the header.
+         * @param kind COMMIT, STAGE, TREE or INDEX
+         * @param version version of the layout that follows
+         */
+        Writer(byte kind, int version) {
+            out.write(MAGIC >>> 8);
+            out.write(MAGIC & 0xff);
+            out.write(kind);
+            varint(version);
+        }
+
+        /**
+         * Writes a non-negative number.
+         * @param value number
+         * @return this writer
+         */
+        Writer varint(long value) {
+            while ((value & ~0x7fL) != 0) {
+                out.write((int) (value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.write((int) value);
+            return this;
+        }
+
+        /**
+         * Writes a number that may be negative.
+         * @param value number
+         * @return this writer
+         */
+        Writer signed(long value) {
+            return varint(value << 1 ^ value >> 63);
+        }
+
+        /**
+         * Writes a string.
+         * @param value string
+         * @return this writer
+         */
+        Writer string(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            varint(bytes.length);
+            out.write(bytes, 0, bytes.length);
+            return this;
+        }
+
+        /**
+         * Writes a code.
+         * @param code sha1 code
+         * @return this writer
+         */
+        Writer code(String code) {
+            out.write(Pack.toBytes(code), 0, Pack.CODE_BYTES);
+            return this;
+        }
+
+        /**
+         * Returns the encoding.
+         * @return bytes written
+         */
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+
+    /** Reads the encoding of one object. */
+    static class Reader {
+        /** bytes of the object. */
+        private final ByteBuffer in;
+
+        /** version of the layout. */
+        private final int version;
+
+        /**
+         * Constructor. Reads and checks the header.
+         * @param data bytes of the object
+         * @param kind COMMIT, STAGE, TREE or INDEX
+         */
+        Reader(byte[] data, byte kind) {
+            in = ByteBuffer.wrap(data);
+            if (data.length < 3
+                    || ((data[0] & 0xff) << 8 | data[1] & 0xff) != MAGIC
+                    || data[2] != kind) {
+                throw Utils.error("Unreadable object.");
+            }
+            in.position(3);
+            version = (int) varint();
+        }
+
+        /**
+         * Returns the version of the layout of the object.
+         * @return version
+         */
+        int version() {
+            return version;
+        }
+
+        /**
+         * Returns the number of bytes read so far, header included.
+         * @return position
+         */
+        int position() {
+            return in.position();
+        }
+
+        /**
+         * Checks whether bytes are left to read.
+         * @return true iff the object goes on
+         */
+        boolean hasRemaining() {
+            return in.hasRemaining();
+        }
+
+        /**
+         * Reads a non-negative number.
+         * @return number
+         */
+        long varint() {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = next();
+                result |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw Utils.error("Unreadable object.");
+        }
+
+        /**
+         * Reads a number that may be negative.
+         * @return number
+         */
+        long signed() {
+            long value = varint();
+            return value >>> 1 ^ -(value & 1);
+        }
+
+        /**
+         * Reads a string.
+         * @return string
+         */
+        String string() {
+            int length = (int) varint();
+            if (length < 0 || length > in.remaining()) {
+                throw Utils.error("Unreadable object.");
+            }
+            String result = new String(in.array(), in.position(), length,
+                    StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+            return result;
+        }
+
+        /**
+         * Reads a code.
+         * @return sha1 code
+         */
+        String code() {
+            if (in.remaining() < Pack.CODE_BYTES) {
+                throw Utils.error("Unreadable object.");
+            }
+            byte[] raw = new byte[Pack.CODE_BYTES];
+            in.get(raw);
+            return ObjectStore.toHex(raw);
+        }
+
+        /**
+         * Reads one byte.
+         * @return byte
+         */
+        private byte next() {
+            if (!in.hasRemaining()) {
+                throw Utils.error("Unreadable object.");
+            }
+            return in.get();
+        }
+    }
+}
@@ -3,11 +3,26 @@ package gitlet;
 
 
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Formatter;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * A class that contains all the commands for gitlet.
@@ -27,22 +42,35 @@ public class Commands {
         }
         Stage stage = new Stage();
         Stage.updateStage(stage);
-        Utils.writeObject(Files.MESSAGECODE, new MessageCode());
         new Commit("initial commit", null);
     }
 
 
-    /** Adds a copy of the file as it currently exist to the staging area.
-     * @param args Array in format: {'add' 'file name'}
+    /** Adds a copy of the files as they currently exist to the staging
+     * area. Each argument is a file, a folder, whose files are all added,
+     * or a glob pattern. The files are hashed and stored in parallel,
+     * then the stage is written once.
+     * @param args Array in format: {'add' 'file name' ...}
      */
     public static void add(String[] args) throws IOException {
-        validateNumArgs(args, 2);
-        File file = Utils.join(Files.CWD, args[1]);
-        if (!file.exists()) {
-            Main.exitWithError("File does not exist.");
+        if (args.length < 2) {
+            throw new GitletException("Incorrect operands.");
+        }
+        LinkedHashSet<String> paths = new LinkedHashSet<>();
+        for (int i = 1; i < args.length; i += 1) {
+            List<String> matched = WorkingTree.match(args[i]);
+            if (matched.isEmpty()) {
+                Main.exitWithError("File does not exist.");
+            }
+            paths.addAll(matched);
         }
+        Map<String, String> codes = Index.local().storeAll(paths);
         Stage stage = Stage.getSTAGE();
-        stage.processFile(file);
+        HashMap<String, String> headMap =
+                Commit.getHeadCommitObj().getNameBlobMap();
+        for (String path : paths) {
+            stage.processFile(path, codes.get(path), headMap);
+        }
         Stage.updateStage(stage);
     }
 
@@ -72,8 +100,7 @@ public class Commands {
      */
     public static void rm(String[] args) {
         validateNumArgs(args, 2);
-        File file = Utils.join(Files.CWD, args[1]);
-        String fileName = file.getName();
+        String fileName = WorkingTree.path(args[1]);
         Stage stage = Stage.getSTAGE();
         Commit head = Commit.getHeadCommitObj();
         if (!head.getNameBlobMap().containsKey(fileName)
@@ -81,10 +108,10 @@ public class Commands {
             Main.exitWithError("No reason to remove the file.");
         }
         if (stage.getAdditionStage().contains(fileName)) {
-            stage.getAdditionStage().remove(fileName);
+            stage.unstageAddition(fileName);
         } else {
-            stage.getRemovalStage().add(fileName);
-            Utils.restrictedDelete(file);
+            stage.stageRemoval(fileName);
+            WorkingTree.delete(fileName);
         }
         Stage.updateStage(stage);
     }
@@ -105,29 +132,32 @@ public class Commands {
             String other = branchNames.remove(0);
             branchNames.add(other);
         }
-        ArrayList<String> addNames = stage.getAdditionStage();
-        ArrayList<String> rmNames = stage.getRemovalStage();
+        Set<String> addNames = new TreeSet<>(stage.getAdditionStage());
+        Set<String> rmNames = new TreeSet<>(stage.getRemovalStage());
         ArrayList<String> deleted = new ArrayList<>();
         ArrayList<String> modified = new ArrayList<>();
         ArrayList<String> untracked = new ArrayList<>();
-        ArrayList<String> curr = new ArrayList<>();
+        HashSet<String> curr = new HashSet<>();
         Commit head = Commit.getHeadCommitObj();
         HashMap<String, String> headMap = head.getNameBlobMap();
-        for (File file : Files.CWD.listFiles(Files.filter())) {
-            curr.add(file.getName());
-            String fileName = file.getName();
-            Blob blob = new Blob(file);
+        Index index = Index.local();
+        for (String fileName : WorkingTree.paths()) {
+            curr.add(fileName);
             if (headMap.get(fileName) == null) {
                 if (!stage.getAdditionStage().contains(fileName)
                         && !stage.getRemovalStage().contains(fileName)) {
                     untracked.add(fileName);
                 }
-            } else if (!blob.equals(headMap.get(fileName))
-                    && !blob.equals(stage.getAddNameCodeMap().get(fileName))) {
+                continue;
+            }
+            String code = index.hash(fileName);
+            if (!code.equals(headMap.get(fileName))
+                    && !code.equals(stage.getAddNameCodeMap().get(fileName))) {
                 modified.add(fileName + " (modified)");
             }
         }
-        for (String s: headMap.keySet()) {
+        index.retain(curr);
+        for (String s: new TreeSet<>(headMap.keySet())) {
             if (!curr.contains(s) && !rmNames.contains(s)) {
                 deleted.add(s + " (deleted)");
             }
@@ -159,42 +189,94 @@ public class Commands {
      * along the commit tree until the initial commit,
      * following the first parent commit links,
      * ignoring any second parents found in merge commits.
-     * @param args Array in format: {'log'}
+     * Entries are printed as the history is walked, so the first ones
+     * appear at once however long the history is.
+     * @param args Array in format: {'log' ['-n' 'count'] ['--oneline']}
      */
     public static void log(String[] args) {
-        validateNumArgs(args, 1);
-        String head = Commit.getHeadCommitCode();
-        String log = Utils.readContentsAsString(
-                Utils.join(Files.LOGSCOMMITSHIS, head));
-        System.out.println(log);
+        int limit = -1;
+        boolean oneline = false;
+        for (int i = 1; i < args.length; i += 1) {
+            if (args[i].equals("--oneline")) {
+                oneline = true;
+            } else if (args[i].equals("-n") && i + 1 < args.length
+                    && args[i + 1].matches("\\d+")) {
+                i += 1;
+                limit = Integer.parseInt(args[i]);
+            } else {
+                throw new GitletException("Incorrect operands.");
+            }
+        }
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+        String code = Commit.getHeadCommitCode();
+        for (int n = 0; code != null && n != limit; n += 1) {
+            Commit commit = Commit.getCommitObj(code);
+            if (oneline) {
+                out.print(code.substring(0, 7) + " "
+                        + commit.getMessage() + "\n");
+            } else {
+                out.print(commit.logEntry(code) + "\n");
+            }
+            code = commit.getParent1();
+        }
+        out.flush();
     }
 
     /**
      * Like log, except displays information about all commits ever made.
-     * The order of the commits does not matter.
+     * The journal is mapped and read from its end, so the newest
+     * commits are printed first and at once.
      * @param args Array in format: {'global-log'}
+     * @throws IOException
      */
-    public static void globalLog(String[] args) {
+    public static void globalLog(String[] args) throws IOException {
         validateNumArgs(args, 1);
-        String log = Utils.readContentsAsString(Files.LOGSREFSHEADSSHARED);
-        System.out.println(log);
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+        try (FileChannel channel = FileChannel.open(Files.JOURNAL.toPath(),
+                StandardOpenOption.READ)) {
+            MappedByteBuffer journal = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] record = new byte[Pack.CODE_BYTES];
+            int count = journal.capacity() / record.length;
+            for (int i = count - 1; i >= 0; i -= 1) {
+                journal.get(i * record.length, record);
+                String code = ObjectStore.toHex(record);
+                if (ObjectStore.local().contains(ObjectStore.COMMIT, code)) {
+                    out.print(Commit.getCommitObj(code).logEntry(code)
+                            + "\n");
+                }
+            }
+        }
+        out.flush();
     }
 
     /**
      * Prints out the ids of all commits that have
-     * the given commit message, one per line.
-     * @param args Array in format: {'find' 'message'}
+     * the given commit message, one per line, oldest first.
+     * With --token, finds the commits with the given word in their
+     * message, ignoring case; with --substring, those whose message
+     * contains the given text.
+     * @param args Array in format: {'find' ['--token'|'--substring']
+     *             'message'}
+     * @throws IOException
      */
-    public static void find(String[] args) {
-        validateNumArgs(args, 2);
-        MessageCode mapObject = Utils.readObject(
-                Files.MESSAGECODE, MessageCode.class);
-        HashMap<String, String> map = mapObject.getMap();
-        if (map.get(args[1]) == null) {
-            Main.exitWithError("Found no commit with that message.");
+    public static void find(String[] args) throws IOException {
+        int mode = FindIndex.EXACT;
+        if (args.length == 3 && args[1].equals("--token")) {
+            mode = FindIndex.TOKEN;
+        } else if (args.length == 3 && args[1].equals("--substring")) {
+            mode = FindIndex.SUBSTRING;
         } else {
-            System.out.println(map.get(args[1]));
+            validateNumArgs(args, 2);
         }
+        List<String> codes = FindIndex.local().find(args[args.length - 1],
+                mode);
+        if (codes.isEmpty()) {
+            Main.exitWithError("Found no commit with that message.");
+        }
+        System.out.println(String.join("\n", codes));
     }
 
     /**
@@ -212,26 +294,14 @@ public class Commands {
             if (!args[1].equals("--")) {
                 Main.exitWithError("Incorrect operands.");
             }
-            File file = Utils.join(Files.CWD, args[2]);
             Commit head = Commit.getHeadCommitObj();
-            checkoutHelper(head, file);
+            checkoutHelper(head, WorkingTree.path(args[2]));
         } else if (args.length == 4) {
             if (!args[2].equals("--")) {
                 Main.exitWithError("Incorrect operands.");
             }
-            File file = Utils.join(Files.CWD, args[3]);
-            File commitFile = null;
-            for (File f : Files.LOGSCOMMITS.listFiles(Files.filter())) {
-                if (f.getName().contains(args[1])) {
-                    commitFile = f;
-                }
-            }
-
-            if (commitFile == null) {
-                Main.exitWithError("No commit with that id exists.");
-            }
-            Commit commit = Utils.readObject(commitFile, Commit.class);
-            checkoutHelper(commit, file);
+            Commit commit = Commit.getCommitObj(resolveCommit(args[1]));
+            checkoutHelper(commit, WorkingTree.path(args[3]));
         } else if (args.length == 2) {
             File fileBranch = Utils.join(Files.REFSHEADS, args[1]);
             if (!fileBranch.exists()) {
@@ -240,8 +310,7 @@ public class Commands {
                 Main.exitWithError("No need to checkout the current branch.");
             }
             String headCode = Utils.readContentsAsString(fileBranch);
-            Commit commit = Utils.readObject(Utils.join(
-                    Files.LOGSCOMMITS, headCode), Commit.class);
+            Commit commit = Commit.getCommitObj(headCode);
             checkoutBranchHelper(args[1], commit, headCode);
         } else {
             throw new GitletException("Incorrect operands.");
@@ -252,6 +321,10 @@ public class Commands {
      * Does most of the work for checking out a branch.
      * 1. checks untracked files, if they will be modified error.
      * 2. checkout each of the files
+     * Only the files whose blob differs between the head and COMMIT are
+     * written or deleted, as found by diffing their trees. The others
+     * are written only if the working file was changed, which the index
+     * tells from its stat data.
      * @param branch branch name
      * @param commit the current commit
      * @param headCode current commit sha1 code
@@ -261,27 +334,41 @@ public class Commands {
         HashMap<String, String> map  = commit.getNameBlobMap();
         Stage stage = Stage.getSTAGE();
         Commit head = Commit.getHeadCommitObj();
-        ArrayList<String> untracked = new ArrayList<>();
-        for (File file : Files.CWD.listFiles(Files.filter())) {
-            String fileName = file.getName();
-            if (head.getNameBlobMap().get(fileName) == null
+        HashMap<String, String> headMap = head.getNameBlobMap();
+        HashSet<String> present = new HashSet<>(WorkingTree.paths());
+        HashSet<String> untracked = new HashSet<>();
+        for (String fileName : present) {
+            if (headMap.get(fileName) == null
                     && !stage.getAdditionStage().contains(fileName)
                     || stage.getRemovalStage().contains(fileName)) {
                 untracked.add(fileName);
             }
         }
         for (String s : map.keySet()) {
-            File file = Utils.join(Files.CWD, s);
             checkUntracked(untracked, s);
-            checkoutHelper(commit, file);
         }
-
-        for (String s : head.getNameBlobMap().keySet()) {
+        Set<String> changed = Commit.changedPaths(head, commit);
+        for (String s : changed) {
             if (map.get(s) == null) {
                 checkUntracked(untracked, s);
-                Utils.restrictedDelete(s);
             }
         }
+        for (String s : changed) {
+            if (map.get(s) == null) {
+                WorkingTree.delete(s);
+            }
+        }
+        try {
+            Index index = Index.local();
+            for (String s : map.keySet()) {
+                if (changed.contains(s) || !present.contains(s)
+                        || !map.get(s).equals(index.hash(s))) {
+                    checkoutHelper(commit, s);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
         stage.clearRemovalStage();
         stage.clearAdditionStage();
         Stage.updateStage(stage);
@@ -290,17 +377,14 @@ public class Commands {
     /**
      * Helps checkout a file.
      * @param commit takes a commit to restore the file from
-     * @param file file that is going to be overwriten.
+     * @param path path of the file that is going to be overwriten.
      */
-    private static void checkoutHelper(Commit commit, File file) {
-        if (commit.getNameBlobMap().get(file.getName()) == null) {
+    private static void checkoutHelper(Commit commit, String path) {
+        String blobCode = commit.getNameBlobMap().get(path);
+        if (blobCode == null) {
             Main.exitWithError("File does not exist in that commit.");
         }
-        String blobCode = commit.getNameBlobMap().get(file.getName());
-        File blobFile = Utils.join(Files.OBJECTS, blobCode);
-        Blob blob = Utils.readObject(blobFile, Blob.class);
-        String contents = blob.getContents();
-        Utils.writeContents(file, contents);
+        WorkingTree.write(blobCode, path);
     }
 
     /**
@@ -338,14 +422,6 @@ public class Commands {
             Main.exitWithError("Cannot remove the current branch.");
         }
         branch.delete();
-        String masterLog = Utils.readContentsAsString(
-                Files.LOGSREFSHEADSMASTER);
-        String sharedLog = Utils.readContentsAsString(
-                Files.LOGSREFSHEADSSHARED);
-        sharedLog = masterLog + sharedLog;
-        Utils.writeContents(Files.LOGSREFSHEADSSHARED, sharedLog);
-        Files.LOGSREFSHEADSMASTER.delete();
-        Files.LOGSREFSHEADSMASTER.createNewFile();
     }
 
     /**
@@ -355,13 +431,25 @@ public class Commands {
      */
     public static void reset(String[] args) {
         validateNumArgs(args, 2);
-        File commitFile = Utils.join(Files.LOGSCOMMITS, args[1]);
-        if (!commitFile.exists()) {
+        String code = resolveCommit(args[1]);
+        Commit commit = Commit.getCommitObj(code);
+        checkoutBranchHelper(Commit.getHeadCommitName(), commit, code);
+    }
+
+    /**
+     * Returns the full code of the only commit whose id starts with ID.
+     * Exits if there is no such commit, or more than one.
+     * @param id full or abbreviated commit id
+     * @return code of the commit
+     */
+    private static String resolveCommit(String id) {
+        List<String> codes = ObjectStore.local().commitsWithPrefix(id);
+        if (codes.isEmpty()) {
             Main.exitWithError("No commit with that id exists.");
+        } else if (codes.size() > 1) {
+            Main.exitWithError("More than one commit has that id.");
         }
-        Commit commit = Utils.readObject(Utils.join(
-                Files.LOGSCOMMITS, args[1]), Commit.class);
-        checkoutBranchHelper(Commit.getHeadCommitName(), commit, args[1]);
+        return codes.get(0);
     }
 
     /**
@@ -385,43 +473,38 @@ public class Commands {
         } else if (Commit.getHeadCommitName().equals(args[1])) {
             Main.exitWithError("Cannot merge a branch with itself.");
         } else {
-            for (File file : Files.CWD.listFiles(Files.filter())) {
-                String fileName = file.getName();
+            for (String fileName : WorkingTree.paths()) {
                 if (!headMap.keySet().contains(fileName)) {
                     untracked.add(fileName);
                 }
             }
         }
         String branchCode = Utils.readContentsAsString(branch);
-        Commit branchHead = Utils.readObject(Utils.join(
-                Files.LOGSCOMMITS, branchCode), Commit.class);
+        Commit branchHead = Commit.getCommitObj(branchCode);
         HashMap<String, String> branchHeadMap = branchHead.getNameBlobMap();
-        ArrayList<String> headParents = head.getPartents();
-        ArrayList<String> branchParents = branchHead.getPartents();
+        CommitGraph graph = CommitGraph.local();
         boolean encontered = false;
-        if (headParents.contains(branchCode)) {
+        if (graph.isAncestor(branchCode, headCode)) {
             Main.exitWithError(
                     "Given branch is an ancestor of the current branch.");
-        } else if (branchParents.contains(headCode)) {
+        } else if (graph.isAncestor(headCode, branchCode)) {
             checkout(new String[]{"checkout", args[1]});
             Main.exitWithError("Current branch fast-forwarded.");
         }
-        String lastCommonID = null;
-        for (int i = headParents.size() - 1; i > -1; i--) {
-            if (branchParents.contains(headParents.get(i))) {
-                lastCommonID = headParents.get(i);
-                break;
-            }
-        }
-        Commit lastShared = Utils.readObject(
-                Utils.join(Files.LOGSCOMMITS, lastCommonID), Commit.class);
-        HashMap<String, String> lastSharedMap = lastShared.getNameBlobMap();
+        String lastCommonID = graph.mergeBase(headCode, branchCode);
+        Commit lastShared = Commit.getCommitObj(lastCommonID);
+        Set<String> changed = Commit.changedPaths(lastShared, head);
+        changed.addAll(Commit.changedPaths(lastShared, branchHead));
+        HashMap<String, String> lastSharedMap = only(
+                lastShared.getNameBlobMap(), changed);
+        HashMap<String, String> headChanges = only(headMap, changed);
+        HashMap<String, String> branchChanges = only(branchHeadMap, changed);
         ArrayList<String> checkedFiles = new ArrayList<>();
-        branchHeadMap.keySet().forEach(s -> checkUntracked(untracked, s));
+        branchChanges.keySet().forEach(s -> checkUntracked(untracked, s));
         Stage.updateStage(stage);
-        encontered = checkSplitPoint(lastSharedMap, headMap, branchHeadMap,
-                checkedFiles, untracked, branchCode);
-        encontered = checkBranchHead(headMap, branchHeadMap,
+        encontered = checkSplitPoint(lastSharedMap, headChanges,
+                branchChanges, checkedFiles, untracked, branchCode);
+        encontered = checkBranchHead(headChanges, branchChanges,
                 checkedFiles, untracked, branchCode, encontered);
         mergeCommit("Merged " + args[1] + " into "
                 + Commit.getHeadCommitName() + ".", headCode, branchCode);
@@ -430,6 +513,24 @@ public class Commands {
         }
     }
 
+    /**
+     * Returns the entries of MAP for PATHS. Files that neither branch
+     * changed since the split point need no merging, and are left out.
+     * @param map blobs by path
+     * @param paths paths to keep
+     * @return blobs by path, for PATHS only
+     */
+    private static HashMap<String, String> only(Map<String, String> map,
+                                                Set<String> paths) {
+        HashMap<String, String> result = new HashMap<>();
+        for (String path : paths) {
+            if (map.containsKey(path)) {
+                result.put(path, map.get(path));
+            }
+        }
+        return result;
+    }
+
     /**
      * Check branch head for merge.
      * @param headMap headmap
@@ -461,15 +562,13 @@ public class Commands {
                 checkUntracked(untracked, s);
                 if (headBlob == null) {
                     checkout(new String[]{"checkout", branchCode, "--", s});
-                    stage.getAdditionStage().add(s);
-                    stage.getAddNameCodeMap().put(s, new Blob(s).code());
+                    stage.stageAddition(s, Index.local().store(s));
                 } else if (branchBlob.equals(headBlob)) {
                     continue;
                 } else if (!branchBlob.equals(headBlob)) {
                     encontered = true;
                     mergeConflict(s, headBlob, branchBlob);
-                    stage.getAdditionStage().add(s);
-                    stage.getAddNameCodeMap().put(s, new Blob(s).code());
+                    stage.stageAddition(s, Index.local().store(s));
                 } else {
                     Main.exitWithError(
                             "I missed something in merge: checking branchhead");
@@ -517,8 +616,7 @@ public class Commands {
                     && !splitBlob.equals(branchBlob)) {
                 encontered = true;
                 mergeConflict(s, headBlob, branchBlob);
-                stage.getAdditionStage().add(s);
-                stage.getAddNameCodeMap().put(s, new Blob(s).code());
+                stage.stageAddition(s, Index.local().store(s));
             } else if (headBlob == null
                     && splitBlob.equals(branchBlob)) {
                 continue;
@@ -526,8 +624,7 @@ public class Commands {
                     && !splitBlob.equals(headBlob)) {
                 encontered = true;
                 mergeConflict(s, headBlob, branchBlob);
-                stage.getAdditionStage().add(s);
-                stage.getAddNameCodeMap().put(s, new Blob(s).code());
+                stage.stageAddition(s, Index.local().store(s));
             } else if (branchBlob == null
                     && splitBlob.equals(headBlob)) {
                 rm(new String[]{"no", s});
@@ -538,8 +635,7 @@ public class Commands {
             } else if (splitBlob.equals(headBlob)
                     && !splitBlob.equals(branchBlob)) {
                 checkout(new String[]{"checkout", branchCode, "--", s});
-                stage.getAdditionStage().add(s);
-                stage.getAddNameCodeMap().put(s, new Blob(s).code());
+                stage.stageAddition(s, Index.local().store(s));
             } else if (!splitBlob.equals(headBlob)
                     && splitBlob.equals(branchBlob)) {
                 continue;
@@ -547,8 +643,7 @@ public class Commands {
                     && !splitBlob.equals(headBlob)) {
                 encontered = true;
                 mergeConflict(s, headBlob, branchBlob);
-                stage.getAdditionStage().add(s);
-                stage.getAddNameCodeMap().put(s, new Blob(s).code());
+                stage.stageAddition(s, Index.local().store(s));
             }
         }
         Stage.updateStage(stage);
@@ -577,7 +672,7 @@ public class Commands {
      * @param untracked untracked list
      * @param fileName file name
      */
-    private static void checkUntracked(ArrayList<String> untracked,
+    private static void checkUntracked(Collection<String> untracked,
                                        String fileName) {
         if (untracked.contains(fileName)) {
             Main.exitWithError(
@@ -594,26 +689,19 @@ public class Commands {
     private static void mergeConflict(String fileName,
                                       String headBlob,
                                       String branchBlob) {
-        File file = Utils.join(Files.CWD, fileName);
+        File file = WorkingTree.file(fileName);
+        file.getParentFile().mkdirs();
         String headContents;
         String branchheadContents;
         if (headBlob == null) {
             headContents = null;
-            branchheadContents = Utils.readObject(
-                    Utils.join(Files.OBJECTS, branchBlob),
-                    Blob.class).getContents();
+            branchheadContents = Blob.getContents(branchBlob);
         } else if (branchBlob == null) {
-            headContents = Utils.readObject(
-                    Utils.join(Files.OBJECTS, headBlob),
-                    Blob.class).getContents();
+            headContents = Blob.getContents(headBlob);
             branchheadContents = null;
         } else {
-            headContents = Utils.readObject(Utils.join(
-                    Files.OBJECTS, headBlob),
-                    Blob.class).getContents();
-            branchheadContents = Utils.readObject(
-                    Utils.join(Files.OBJECTS, branchBlob),
-                    Blob.class).getContents();
+            headContents = Blob.getContents(headBlob);
+            branchheadContents = Blob.getContents(branchBlob);
         }
         Formatter out = new Formatter();
         out.format("<<<<<<< HEAD%n");
@@ -674,7 +762,7 @@ public class Commands {
         String remoteName = args[1];
         String remoteBranchName = args[2];
         File remoteDir = Utils.join(Files.REMOTES, remoteName);
-        File remoteRepo = new File(Utils.readContentsAsString(
+        File remoteRepo = Files.resolve(Utils.readContentsAsString(
                 remoteDir));
         File remoteBranch = Utils.join(remoteRepo, "refs/heads/"
                 + remoteBranchName);
@@ -683,26 +771,17 @@ public class Commands {
         } else if (!remoteBranch.exists()) {
             branch(new String[]{remoteRepo.getPath(), remoteBranchName});
         } else {
+            Migration.upgrade(remoteRepo);
             String remoteHeadID = Commit.getRemoteBranchHeadID(
                     remoteRepo, remoteBranchName);
-            Commit headCommit = Commit.getHeadCommitObj();
-            if (!headCommit.getPartents().contains(remoteHeadID)) {
+            if (!CommitGraph.local().isAncestor(remoteHeadID,
+                    Commit.getHeadCommitCode())) {
                 Main.exitWithError("Please pull down remote "
                         + "changes before pushing.");
             }
+            copyHistory(ObjectStore.local(), ObjectStore.of(remoteRepo),
+                    Commit.getHeadCommitCode());
             Utils.writeContents(remoteBranch, Commit.getHeadCommitCode());
-            Commit currCommit = Commit.getHeadCommitObj();
-            File remoteCommits = Utils.join(remoteRepo,
-                    "logs/commits");
-            Utils.writeObject(Utils.join(remoteCommits,
-                    Commit.getHeadCommitCode()),
-                    currCommit);
-            String currCommitLog = Utils.readContentsAsString(
-                    Utils.join(Files.LOGSCOMMITSHIS,
-                            Commit.getHeadCommitCode()));
-            Utils.writeContents(Utils.join(remoteCommits,
-                    "commit logs/"
-                    + Commit.getHeadCommitCode()), currCommitLog);
         }
 
 
@@ -720,52 +799,21 @@ public class Commands {
         String remoteName = args[1];
         String remoteBranchName = args[2];
         File remoteDir = Utils.join(Files.REMOTES, remoteName);
-        File remoteRepo = new File(Utils.readContentsAsString(
+        File remoteRepo = Files.resolve(Utils.readContentsAsString(
                 remoteDir));
         if (!remoteRepo.exists()) {
             Main.exitWithError("Remote directory not found.");
         }
+        Migration.upgrade(remoteRepo);
         File remoteBranchHead = Utils.join(
                 remoteRepo, "refs/heads/" + remoteBranchName);
         if (!remoteBranchHead.exists()) {
             Main.exitWithError("That remote does not have that branch.");
         }
-        Commit remoteBranchHeadObj = Commit.getRemoteBranchHeadObj(
-                remoteRepo, remoteBranchName);
-        ArrayList<String> remoteBranchHeadParents =
-                remoteBranchHeadObj.getPartents();
-        HashMap<String, String> remoteBranchHeadMap =
-                remoteBranchHeadObj.getNameBlobMap();
         String remoteBranchHeadID = Commit.getRemoteBranchHeadID(
                 remoteRepo, remoteBranchName);
-        if (!Utils.join(Files.LOGSCOMMITS, remoteBranchHeadID).exists()) {
-            File remoteBranchHeadLog = Utils.join(remoteRepo,
-                    "logs/commits/commit logs/"
-                            + remoteBranchHeadID);
-            Utils.writeObject(Utils.join(Files.LOGSCOMMITS,
-                    remoteBranchHeadID), remoteBranchHeadObj);
-            Utils.writeContents(Utils.join(Files.LOGSCOMMITSHIS,
-                    remoteBranchHeadID),
-                    Utils.readContentsAsString(remoteBranchHeadLog));
-        }
-        for (String parent : remoteBranchHeadParents) {
-            if (!Utils.join(Files.LOGSCOMMITS, parent).exists()) {
-                Commit obj = Commit.getRemoteCommit(remoteRepo, parent);
-                Utils.writeObject(Utils.join(Files.LOGSCOMMITS, parent), obj);
-                File parentLog = Utils.join(remoteRepo,
-                        "logs/commits/commit logs/"
-                                + remoteBranchHeadID);
-                Utils.writeContents(Utils.join(Files.LOGSCOMMITSHIS,
-                        parent), Utils.readContentsAsString(parentLog));
-            }
-        }
-        for (String blobID : remoteBranchHeadMap.values()) {
-            if (!Utils.join(Files.OBJECTS, blobID).exists()) {
-                Blob blob = Blob.getRemoteBlob(remoteRepo, blobID);
-                Utils.writeObject(Utils.join(Files.OBJECTS, blobID),
-                        blob);
-            }
-        }
+        copyHistory(ObjectStore.of(remoteRepo), ObjectStore.local(),
+                remoteBranchHeadID);
         File branchHead = Utils.join(Files.REFSHEADS,
                 remoteName + "/" + remoteBranchName);
         if (!branchHead.exists()) {
@@ -775,6 +823,94 @@ public class Commands {
         Utils.writeContents(branchHead, remoteBranchHeadID);
     }
 
+    /**
+     * Copies the commit HEAD and each of its ancestors that TO lacks
+     * from FROM, along with their trees and blobs. The walk stops at the
+     * commits TO already holds, so only the new history is read, and
+     * commits are copied parents first, after their trees, so that TO
+     * never holds a commit whose history is missing.
+     * @param from store holding the history
+     * @param to store receiving the history
+     * @param head code of the newest commit to copy
+     * @throws IOException
+     */
+    private static void copyHistory(ObjectStore from, ObjectStore to,
+                                    String head) throws IOException {
+        ArrayList<String> missing = new ArrayList<>();
+        HashSet<String> seen = new HashSet<>();
+        ArrayDeque<String> todo = new ArrayDeque<>();
+        todo.push(head);
+        while (!todo.isEmpty()) {
+            String code = todo.pop();
+            if (!seen.add(code) || to.contains(ObjectStore.COMMIT, code)) {
+                continue;
+            }
+            missing.add(code);
+            Commit commit = from.readObject(ObjectStore.COMMIT, code,
+                    Commit.class);
+            for (String parent : new String[] {commit.getParent1(),
+                    commit.getParent2()}) {
+                if (parent != null) {
+                    todo.push(parent);
+                }
+            }
+        }
+        for (int i = missing.size() - 1; i >= 0; i -= 1) {
+            String code = missing.get(i);
+            Commit commit = from.readObject(ObjectStore.COMMIT, code,
+                    Commit.class);
+            if (commit.getTree() != null) {
+                copyTree(from, to, commit.getTree());
+            } else {
+                copyBlobs(from, to, commit.getNameBlobMap(from).values());
+            }
+            to.copy(from, ObjectStore.COMMIT, code);
+        }
+    }
+
+    /**
+     * Copies a tree that TO lacks from FROM, after its blobs and the
+     * subtrees TO lacks. Subtrees TO holds are not read.
+     * @param from store holding the tree
+     * @param to store receiving the tree
+     * @param code code of the tree
+     * @throws IOException
+     */
+    private static void copyTree(ObjectStore from, ObjectStore to,
+                                 String code) throws IOException {
+        if (to.contains(ObjectStore.TREE, code)) {
+            return;
+        }
+        Tree tree = Tree.read(from, code);
+        copyBlobs(from, to, tree.getBlobs().values());
+        for (String subtree : tree.getTrees().values()) {
+            copyTree(from, to, subtree);
+        }
+        to.copy(from, ObjectStore.TREE, code);
+    }
+
+    /**
+     * Copies the blobs TO lacks from FROM, after their chunks.
+     * @param from store holding the blobs
+     * @param to store receiving the blobs
+     * @param blobs codes of blobs
+     * @throws IOException
+     */
+    private static void copyBlobs(ObjectStore from, ObjectStore to,
+                                  Collection<String> blobs)
+            throws IOException {
+        for (String blob : blobs) {
+            if (!to.contains(ObjectStore.BLOB, blob)) {
+                for (String chunk : Blob.chunks(from, blob)) {
+                    if (!to.contains(ObjectStore.BLOB, chunk)) {
+                        to.copy(from, ObjectStore.BLOB, chunk);
+                    }
+                }
+                to.copy(from, ObjectStore.BLOB, blob);
+            }
+        }
+    }
+
     /**
      * Fetches branch [remote name]/[remote branch name] as for the
      * fetch command,
@@ -791,6 +927,34 @@ public class Commands {
         merge(new String[]{"merge", remoteName + "/" + remoteBranchName});
     }
 
+    /**
+     * Consolidates all loose objects and commits into a single pack.
+     * @param args Array with format {"pack"}
+     * @throws IOException
+     */
+    public static void pack(String[] args) throws IOException {
+        validateNumArgs(args, 1);
+        ObjectStore.local().pack();
+    }
+
+    /**
+     * Deletes the loose blobs and trees that no commit and no staged
+     * file can reach, and prints the number of bytes reclaimed.
+     * @param args Array with format {"gc"} or {"gc", "--now"}, which
+     *             also deletes objects written within the grace period
+     * @throws IOException
+     */
+    public static void gc(String[] args) throws IOException {
+        long grace = GarbageCollector.GRACE;
+        if (args.length == 2 && args[1].equals("--now")) {
+            grace = 0;
+        } else {
+            validateNumArgs(args, 1);
+        }
+        long reclaimed = GarbageCollector.collect(grace);
+        System.out.println("Reclaimed " + reclaimed + " bytes.");
+    }
+
     /**
      * Checks the number of arguments versus the expected number,
      * throws a RuntimeException if they do not match.
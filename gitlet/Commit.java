@@ -4,17 +4,36 @@ package gitlet;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Formatter;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 /**
  * Commit Object.
+ * Commits are stored through Codec: the codes of their parents, their
+ * time in seconds with its offset from UTC in minutes, their message
+ * and the code of the Tree of their files. Commits of version 1 list
+ * their files sorted by name instead, each with the code of its blob.
  * @author Shelden Shi
  */
-public class Commit implements Serializable {
+public class Commit implements Serializable, Codec.Encodable {
+    /** Serialization version of commits written by older gitlets. */
+    private static final long serialVersionUID = 1850100175426877486L;
+
+    /** Version of the encoding of commits. */
+    static final int VERSION = 2;
+
+    /** Format of the time of a commit. */
+    private static final String TIME_FORMAT = "EEE MMM d HH:mm:ss yyyy Z";
+
     /** Commit message. */
     private String _message;
     /** Parent of this Commit. */
@@ -23,11 +42,23 @@ public class Commit implements Serializable {
     private String _parent2 = null;
     /** Time this Commit is created. */
     private String time;
-    /** File name maped with blob object ID. */
+    /** File name maped with blob object ID. Read from the tree the
+     * first time it is needed. */
     private HashMap<String, String> nameBlobMap;
-    /** All parent of this Commit. */
+    /** Code of the root tree, or null for commits that list their
+     * files. */
+    private transient String tree;
+    /** Ancestors listed by the commits older gitlets wrote with Java
+     * serialization, which Migration empties. Ancestry is now walked
+     * through the parents (see CommitGraph), and encode never writes
+     * this list, so it is empty in every commit it codes. */
     private ArrayList<String> partents;
 
+    /** Constructor of decoded commits. */
+    private Commit() {
+        partents = new ArrayList<>();
+    }
+
     /** Constructor for Commit class.
      * @param message message input
      * @param parent parent of this Commit object
@@ -35,7 +66,6 @@ public class Commit implements Serializable {
     public Commit(String message, String parent) throws IOException {
         _message = message;
         _parent1 = parent;
-        this.nameBlobMap = new HashMap<>();
         this.partents = new ArrayList<>();
         if (_parent1 == null) {
             this.time = getTime(true);
@@ -43,25 +73,13 @@ public class Commit implements Serializable {
             this.time = getTime(false);
         }
         if (_parent1 != null) {
-            File parentFile = Utils.join(Files.LOGSCOMMITS, _parent1);
-            Commit parentObj = Utils.readObject(parentFile, Commit.class);
+            Commit parentObj = getCommitObj(_parent1);
             Stage stage = Stage.getSTAGE();
-            this.partents.addAll(parentObj.partents);
-            partents.add(parent);
-            nameBlobMap.putAll(parentObj.getNameBlobMap());
-            for (String fileName : stage.getAdditionStage()) {
-                nameBlobMap.put(fileName,
-                        stage.getAddNameCodeMap().get(fileName));
-            }
-            stage.clearAdditionStage();
-
-            for (String fileName : stage.getRemovalStage()) {
-                nameBlobMap.remove(fileName);
-            }
-            stage.clearRemovalStage();
+            storeCommit(parentObj, stagedChanges(stage));
             Stage.updateStage(stage);
+        } else {
+            storeCommit(null, new HashMap<>());
         }
-        storeCommit();
     }
 
     /**
@@ -76,27 +94,32 @@ public class Commit implements Serializable {
         _message = message;
         _parent1 = parent1;
         _parent2 = parent2;
-        this.nameBlobMap = new HashMap<>();
         this.time = getTime(false);
         this.partents = new ArrayList<>();
-        File parentFile = Utils.join(Files.LOGSCOMMITS, parent1);
-        Commit parentObj = Utils.readObject(parentFile, Commit.class);
+        Commit parentObj = getCommitObj(parent1);
         Stage stage = Stage.getSTAGE();
-        partents.addAll(parentObj.partents);
-        partents.add(parent2); partents.add(parent1);
-        nameBlobMap.putAll(parentObj.getNameBlobMap());
+        storeCommit(parentObj, stagedChanges(stage));
+        Stage.updateStage(stage);
+    }
+
+    /**
+     * Empties STAGE and returns what it held.
+     * @param stage the stage
+     * @return code of the staged blob of each file added, and null for
+     *         each file removed
+     */
+    private static HashMap<String, String> stagedChanges(Stage stage) {
+        HashMap<String, String> changes = new HashMap<>();
         for (String fileName : stage.getAdditionStage()) {
-            nameBlobMap.put(fileName,
-                    stage.getAddNameCodeMap().get(fileName));
+            changes.put(fileName, stage.getAddNameCodeMap().get(fileName));
         }
         stage.clearAdditionStage();
 
         for (String fileName : stage.getRemovalStage()) {
-            nameBlobMap.remove(fileName);
+            changes.put(fileName, null);
         }
         stage.clearRemovalStage();
-        Stage.updateStage(stage);
-        storeCommit();
+        return changes;
     }
 
     /**
@@ -104,8 +127,17 @@ public class Commit implements Serializable {
      * @return head commit
      */
     public static Commit getHeadCommitObj() {
-        File head = Utils.join(Files.LOGSCOMMITS, getHeadCommitCode());
-        return Utils.readObject(head, Commit.class);
+        return getCommitObj(getHeadCommitCode());
+    }
+
+    /**
+     * Returns the commit with the given code.
+     * @param code sha1 code of a commit
+     * @return commit
+     */
+    public static Commit getCommitObj(String code) {
+        return ObjectStore.local().readObject(ObjectStore.COMMIT, code,
+                Commit.class);
     }
 
     /**
@@ -135,77 +167,196 @@ public class Commit implements Serializable {
      * @return nameBlobMap
      */
     public HashMap<String, String> getNameBlobMap() {
+        return getNameBlobMap(ObjectStore.local());
+    }
+
+    /**
+     * Get Name:Blobcode hash map of a commit of STORE.
+     * @param store store holding the tree of this Commit
+     * @return nameBlobMap
+     */
+    HashMap<String, String> getNameBlobMap(ObjectStore store) {
+        if (nameBlobMap == null) {
+            HashMap<String, String> files = new HashMap<>();
+            Tree.flatten(store, tree, "", files);
+            nameBlobMap = files;
+        }
         return nameBlobMap;
     }
 
     /**
-     * Get parents array.
-     * @return parents array
+     * Get the code of the root tree.
+     * @return code of the tree, or null if this Commit lists its files
      */
-    public ArrayList<String> getPartents() {
-        return partents;
+    String getTree() {
+        return tree;
     }
 
     /**
-     * Stores Commit object in a file.
-     * @throws IOException
+     * Returns the paths whose blobs differ between two commits. When
+     * both have trees, only the subtrees that differ are read.
+     * @param a a commit
+     * @param b another commit
+     * @return paths of the files changed, added or removed
      */
-    public void storeCommit() throws IOException {
-        File currCommit = Utils.join(Files.LOGSCOMMITS, code());
-        currCommit.createNewFile();
-        Utils.writeObject(currCommit, this);
-        File currCommitLog = Utils.join(Files.LOGSCOMMITSHIS, code());
-        currCommitLog.createNewFile();
+    static Set<String> changedPaths(Commit a, Commit b) {
+        TreeSet<String> result = new TreeSet<>();
+        if (a.tree != null && b.tree != null) {
+            Tree.diff(ObjectStore.local(), a.tree, b.tree, "", result);
+            return result;
+        }
+        Map<String, String> mapA = a.getNameBlobMap();
+        Map<String, String> mapB = b.getNameBlobMap();
+        for (Map.Entry<String, String> e : mapA.entrySet()) {
+            if (!e.getValue().equals(mapB.get(e.getKey()))) {
+                result.add(e.getKey());
+            }
+        }
+        for (String name : mapB.keySet()) {
+            if (!mapA.containsKey(name)) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
 
+    /**
+     * Empties the ancestor list an older gitlet stored in this Commit.
+     * The code of this Commit is not recomputed.
+     * @return true iff there was anything to drop
+     */
+    boolean dropAncestors() {
+        if (partents == null || partents.isEmpty()) {
+            return false;
+        }
+        partents.clear();
+        return true;
+    }
 
-        String history = Utils.readContentsAsString(
-                Files.LOGSREFSHEADSSHARED);
+    /**
+     * Get the first parent's code.
+     * @return code of parent 1, null for the initial commit
+     */
+    public String getParent1() {
+        return _parent1;
+    }
+
+    /**
+     * Get the second parent's code.
+     * @return code of parent 2, null unless this is a merge commit
+     */
+    public String getParent2() {
+        return _parent2;
+    }
+
+    /**
+     * Get the time this Commit was made.
+     * @return milliseconds since the epoch, or 0 if the time is unreadable
+     */
+    public long getTimestamp() {
+        try {
+            return new SimpleDateFormat(TIME_FORMAT).parse(time).getTime();
+        } catch (ParseException excp) {
+            return 0;
+        }
+    }
+
+    /**
+     * Replaces the codes of blobs and parents of this Commit with their
+     * new codes in IDS, and writes the tree of its files to GITLET.
+     * Codes missing from IDS are kept.
+     * @param ids maps old codes to new codes
+     * @param gitlet .gitlet folder holding this Commit
+     * @return the new code of this Commit
+     * @throws IOException
+     */
+    String remap(Map<String, String> ids, File gitlet) throws IOException {
+        _parent1 = ids.getOrDefault(_parent1, _parent1);
+        _parent2 = ids.getOrDefault(_parent2, _parent2);
+        nameBlobMap.replaceAll((name, code) -> ids.getOrDefault(code, code));
+        partents.clear();
+        Transaction tx = new Transaction(gitlet);
+        tree = Tree.write(ObjectStore.of(gitlet), null, nameBlobMap, tx);
+        tx.commit();
+        return code();
+    }
+
+    /**
+     * Returns the entry of this Commit in log and global-log.
+     * @param code code of this Commit
+     * @return entry, ending with a newline
+     */
+    public String logEntry(String code) {
         Formatter out = new Formatter();
         out.format("===%n");
-        out.format("commit %s", code());
+        out.format("commit %s%n", code);
         if (_parent2 != null) {
-            out.format("%nMerge: " + _parent1.substring(0, 7)
-                    + " " + _parent2.substring(0, 7));
-        }
-        out.format("%nDate: %s%n", time);
-        if (_message.equals("initial commit")) {
-            out.format(_message);
-            String currLog = out.toString();
-            Utils.writeContents(
-                    Files.LOGSREFSHEADSSHARED, currLog + '\n');
-            Utils.writeContents(
-                    currCommitLog, out.toString() + '\n');
-        } else {
-            out.format(_message + "%n");
-            String currLog = out.toString();
-            Utils.writeContents(
-                    Files.LOGSREFSHEADSSHARED, currLog
-                            + '\n' + history);
-            String lastCommitLog = Utils.readContentsAsString(
-                    Utils.join(Files.LOGSCOMMITSHIS,
-                            getHeadCommitCode()));
-            Utils.writeContents(currCommitLog, out.toString()
-                    + '\n' + lastCommitLog);
+            out.format("Merge: %s %s%n", _parent1.substring(0, 7),
+                    _parent2.substring(0, 7));
         }
+        out.format("Date: %s%n", time);
+        out.format("%s%n", _message);
+        return out.toString();
+    }
 
+    /**
+     * Gets the message of this Commit.
+     * @return message
+     */
+    public String getMessage() {
+        return _message;
+    }
 
-        if (!Files.HEAD.exists()) {
-            Files.updateHead("master", code());
-        } else {
-            Files.updateHead(getHeadCommitName(), code());
+    /**
+     * Stores Commit object in a file, along with its trees, its logs and
+     * the updated head, as one transaction, then indexes it. The blobs
+     * of CHANGES, which add wrote unsynced, are synced with the
+     * transaction, so that the head never names lost contents. The
+     * indexes catch up with the journal when they are next read if a
+     * crash stops this before they do. Only the trees of the folders
+     * CHANGES touches are written, unless PARENT lists its files instead
+     * of having a tree.
+     * @param parent first parent of this Commit, or null
+     * @param changes code of the new blob of each path that changed,
+     *                or null for the paths removed
+     * @throws IOException
+     */
+    private void storeCommit(Commit parent, Map<String, String> changes)
+            throws IOException {
+        Transaction tx = new Transaction(Files.GITLET);
+        for (String blob : changes.values()) {
+            if (blob != null) {
+                for (File file : Blob.files(ObjectStore.local(), blob)) {
+                    tx.sync(file);
+                }
+            }
+        }
+        String base = null;
+        if (parent != null && parent.tree == null) {
+            HashMap<String, String> all = new HashMap<>(
+                    parent.getNameBlobMap());
+            all.putAll(changes);
+            changes = all;
+        } else if (parent != null) {
+            base = parent.tree;
         }
+        tree = Tree.write(ObjectStore.local(), base, changes, tx);
+        File currCommit = Files.newObjectFile(Files.LOGSCOMMITS, code());
+        tx.writeObject(currCommit, this);
+        tx.appendRecord(Files.JOURNAL, Pack.toBytes(code()));
+        tx.appendRecord(ObjectStore.local().ids().file(),
+                Pack.toBytes(code()));
 
-        MessageCode mapObject = Utils.readObject(
-                Files.MESSAGECODE, MessageCode.class);
-        HashMap<String, String> messageCode = mapObject.getMap();
-        if (messageCode.get(_message) != null) {
-            String s = messageCode.get(_message);
-            s += "\n" + code();
-            messageCode.put(_message, s);
+        if (!Files.HEAD.exists()) {
+            Files.updateHead("master", code(), tx);
         } else {
-            messageCode.put(_message, code());
+            Files.updateHead(getHeadCommitName(), code(), tx);
         }
-        mapObject.update();
+
+        tx.commit();
+        ObjectStore.local().added(code());
+        CommitGraph.local().index(code());
+        FindIndex.local().update();
     }
     /**
      * Gets a commit object with given ID in given remote.
@@ -214,10 +365,8 @@ public class Commit implements Serializable {
      * @return Commit obj
      */
     public static Commit getRemoteCommit(File remoteRepo, String commitID) {
-        File commits = Utils.join(remoteRepo,
-                "/logs/commits/" + commitID);
-        Commit remoteCommit = Utils.readObject(commits, Commit.class);
-        return remoteCommit;
+        return ObjectStore.of(remoteRepo).readObject(ObjectStore.COMMIT,
+                commitID, Commit.class);
     }
 
     /**
@@ -243,40 +392,82 @@ public class Commit implements Serializable {
      */
     public static Commit getRemoteBranchHeadObj(File remoteRepo,
                                                 String branchName) {
-        File remoteBranchHeadIDFile = Utils.join(remoteRepo,
-                "/refs/heads/" + branchName);
-        String remoteBranchHeadID = Utils.readContentsAsString(
-                remoteBranchHeadIDFile);
-        File remoteBranchHeadCommit = Utils.join(remoteRepo,
-                "logs/commits/" + remoteBranchHeadID);
-        Commit remoteBranchHeadCommitObj = Utils.readObject(
-                remoteBranchHeadCommit, Commit.class);
-        return remoteBranchHeadCommitObj;
+        return getRemoteCommit(remoteRepo,
+                getRemoteBranchHeadID(remoteRepo, branchName));
     }
 
     /**
-     * Gets given remote and branch Name's head's file.
-     * @param remoteRepo given remote
-     * @param branchName given branch name
-     * @return a file.
+     * Returns sha1 code of Commit object.
+     * @return sha1 code
      */
-    public static File getRemoteBranchHeadFile(File remoteRepo,
-                                               String branchName) {
-        File remoteBranchHeadIDFile = Utils.join(remoteRepo,
-                "/refs/heads/" + branchName);
-        String remoteBranchHeadID = Utils.readContentsAsString(
-                remoteBranchHeadIDFile);
-        File remoteBranchHeadCommit = Utils.join(remoteRepo,
-                "logs/commits/" + remoteBranchHeadID);
-        return remoteBranchHeadCommit;
+    private String code() {
+        return Utils.sha1(encode());
+    }
+
+    @Override
+    public byte[] encode() {
+        Codec.Writer out = new Codec.Writer(Codec.COMMIT,
+                tree == null ? 1 : VERSION);
+        out.varint(_parent1 == null ? 0 : _parent2 == null ? 1 : 2);
+        if (_parent1 != null) {
+            out.code(_parent1);
+        }
+        if (_parent2 != null) {
+            out.code(_parent2);
+        }
+        int sign = time.charAt(time.length() - 5) == '-' ? -1 : 1;
+        int offset = sign * (Integer.parseInt(time.substring(
+                time.length() - 4, time.length() - 2)) * 60
+                + Integer.parseInt(time.substring(time.length() - 2)));
+        out.signed(Math.floorDiv(getTimestamp(), 1000)).signed(offset);
+        out.string(_message);
+        if (tree != null) {
+            return out.code(tree).toByteArray();
+        }
+        TreeMap<String, String> files = new TreeMap<>(nameBlobMap);
+        out.varint(files.size());
+        for (Map.Entry<String, String> e : files.entrySet()) {
+            out.string(e.getKey()).code(e.getValue());
+        }
+        return out.toByteArray();
     }
 
     /**
-     * Returns sha1 code of Commit object.
-     * @return sha1 code
+     * Reads a commit encoded by encode.
+     * @param in reader past the header
+     * @return commit
      */
-    private String code() {
-        return Utils.sha1(Utils.serialize(this));
+    static Commit decode(Codec.Reader in) {
+        if (in.version() != 1 && in.version() != VERSION) {
+            throw Utils.error("Unsupported commit version %d.",
+                    in.version());
+        }
+        Commit result = new Commit();
+        long parents = in.varint();
+        if (parents > 0) {
+            result._parent1 = in.code();
+        }
+        if (parents > 1) {
+            result._parent2 = in.code();
+        }
+        long seconds = in.signed();
+        long offset = in.signed();
+        SimpleDateFormat format = new SimpleDateFormat(TIME_FORMAT);
+        format.setTimeZone(TimeZone.getTimeZone(String.format(
+                "GMT%c%02d:%02d", offset < 0 ? '-' : '+',
+                Math.abs(offset) / 60, Math.abs(offset) % 60)));
+        result.time = format.format(new Date(seconds * 1000));
+        result._message = in.string();
+        if (in.version() == VERSION) {
+            result.tree = in.code();
+            return result;
+        }
+        result.nameBlobMap = new HashMap<>();
+        for (long i = in.varint(); i > 0; i -= 1) {
+            String name = in.string();
+            result.nameBlobMap.put(name, in.code());
+        }
+        return result;
     }
 
     /** Returns the current time after formatting.
@@ -286,8 +477,7 @@ public class Commit implements Serializable {
      */
     private String getTime(boolean init) {
         Date current = new Date();
-        SimpleDateFormat format = new SimpleDateFormat(
-                "EEE MMM d HH:mm:ss yyyy Z");
+        SimpleDateFormat format = new SimpleDateFormat(TIME_FORMAT);
         if (init) {
             current.setTime(0);
         }
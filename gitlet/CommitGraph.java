@@ -0,0 +1,548 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+
+
+/**
+ * The parents, generation number and time of every known commit, kept
+ * in .gitlet/commit-graph so that ancestry questions never deserialize
+ * a commit.
+ * A commit's generation is one more than the largest generation of its
+ * parents, so an ancestor always has a smaller generation than its
+ * descendants and walks can stop as soon as they drop below the
+ * generation of what they look for.
+ * The file holds the magic number GRPH, a version, the number of
+ * records and the number of them sorted by code, followed by one record
+ * per commit: its raw code, the positions of its two parents or -1, its
+ * generation and its time in milliseconds. The sorted records come
+ * first, so a commit is found by a binary search of them and a scan of
+ * the short tail of records appended since, parents first, with the
+ * count written last. Once the tail grows past TAIL_LIMIT the file is
+ * rewritten fully sorted.
+ * The file is mapped and queried in place on first use, so commands
+ * that ask nothing of the graph never read it, and queries only look at
+ * the records they walk. Commits missing from the file are added the
+ * first time they are asked about.
+ * @author Shelden Shi
+ */
+class CommitGraph {
+    /** First bytes of the file, "GRPH". */
+    private static final int MAGIC = 0x47525048;
+
+    /** Version of the file format. */
+    private static final int VERSION = 2;
+
+    /** Length of the header. */
+    private static final int HEADER = 16;
+
+    /** Length of a record. */
+    private static final int RECORD = Pack.CODE_BYTES + 4 + 4 + 4 + 8;
+
+    /** Most unsorted records kept before the file is rewritten. */
+    static final int TAIL_LIMIT = 1024;
+
+    /** Flag of commits reachable from the first commit of a query. */
+    private static final byte ONE = 1;
+
+    /** Flag of commits reachable from the second commit of a query. */
+    private static final byte TWO = 2;
+
+    /** Flag of commits already queued. */
+    private static final byte QUEUED = 4;
+
+    /** Graph of the local repository. */
+    private static CommitGraph local;
+
+    /** file holding the graph. */
+    private final File file;
+
+    /** store holding the commits. */
+    private final ObjectStore store;
+
+    /** true iff the file was mapped. */
+    private boolean loaded;
+
+    /** the file, mapped, or null if it is missing or invalid. */
+    private ByteBuffer buf;
+
+    /** number of records in BUF. */
+    private int mapped;
+
+    /** number of records at the start of BUF sorted by code. */
+    private int sorted;
+
+    /** position of each commit added by this command, by code. */
+    private final HashMap<String, Integer> positions = new HashMap<>();
+
+    /** code of each commit added by this command. */
+    private final ArrayList<String> codes = new ArrayList<>();
+
+    /** position of the first parent of each commit added, or -1. */
+    private int[] parent1 = new int[16];
+
+    /** position of the second parent of each commit added, or -1. */
+    private int[] parent2 = new int[16];
+
+    /** generation of each commit added. */
+    private int[] generation = new int[16];
+
+    /** time of each commit added, in milliseconds. */
+    private long[] time = new long[16];
+
+    /** number of records in the file, or -1 if it must be rewritten. */
+    private int saved = -1;
+
+    /**
+     * Constructor.
+     * @param gitlet the local .gitlet folder
+     */
+    private CommitGraph(File gitlet) {
+        file = Utils.join(gitlet, "commit-graph");
+        store = ObjectStore.local();
+    }
+
+    /**
+     * Returns the graph of the local repository.
+     * @return commit graph
+     */
+    static CommitGraph local() {
+        if (local == null) {
+            local = new CommitGraph(Files.GITLET);
+        }
+        return local;
+    }
+
+    /** Forgets the graph of the local repository, which the next
+     * command the daemon runs may not share, or may have to read
+     * again. */
+    static void reset() {
+        local = null;
+    }
+
+    /**
+     * Returns the code of the best common ancestor of two commits: one
+     * that is not an ancestor of any other common ancestor. Commits are
+     * painted from both ends in decreasing generation, so the first one
+     * reached from both sides is such an ancestor. Ties go to the newest
+     * commit, then to the one added to the graph last.
+     * @param a code of a commit
+     * @param b code of another commit
+     * @return code of their merge base, or null if they share none
+     */
+    String mergeBase(String a, String b) {
+        int ia = index(a);
+        int ib = index(b);
+        if (ia == -1 || ib == -1) {
+            return null;
+        }
+        HashMap<Integer, Byte> flags = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>((x, y) -> {
+            if (generation(x) != generation(y)) {
+                return Integer.compare(generation(y), generation(x));
+            }
+            if (time(x) != time(y)) {
+                return Long.compare(time(y), time(x));
+            }
+            return Integer.compare(y, x);
+        });
+        flags.put(ia, (byte) (ONE | QUEUED));
+        flags.merge(ib, (byte) (TWO | QUEUED), (x, y) -> (byte) (x | y));
+        queue.add(ia);
+        if (ib != ia) {
+            queue.add(ib);
+        }
+        while (!queue.isEmpty()) {
+            int x = queue.poll();
+            byte paint = (byte) (flags.get(x) & (ONE | TWO));
+            if (paint == (ONE | TWO)) {
+                return code(x);
+            }
+            for (int p : new int[] {parent1(x), parent2(x)}) {
+                byte old = flags.getOrDefault(p, (byte) 0);
+                if (p != -1 && (old & paint) != paint) {
+                    flags.put(p, (byte) (old | paint | QUEUED));
+                    if ((old & QUEUED) == 0) {
+                        queue.add(p);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks if a commit is DESCENDANT or one of its ancestors. Only
+     * commits of a larger generation than ANCESTOR are walked.
+     * @param ancestor code of a commit
+     * @param descendant code of another commit
+     * @return true iff ANCESTOR can be reached from DESCENDANT
+     */
+    boolean isAncestor(String ancestor, String descendant) {
+        int target = index(ancestor);
+        int start = index(descendant);
+        if (target == -1 || start == -1) {
+            return false;
+        }
+        HashSet<Integer> seen = new HashSet<>();
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        stack.push(start);
+        seen.add(start);
+        while (!stack.isEmpty()) {
+            int x = stack.pop();
+            if (x == target) {
+                return true;
+            } else if (generation(x) <= generation(target)) {
+                continue;
+            }
+            for (int p : new int[] {parent1(x), parent2(x)}) {
+                if (p != -1 && seen.add(p)) {
+                    stack.push(p);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the position of a commit, first adding it and its missing
+     * ancestors, parents first. Parents that are not stored are treated
+     * as absent.
+     * @param code code of a commit
+     * @return position of the commit, or -1 if it is not stored
+     */
+    int index(String code) {
+        int known = position(code);
+        if (known != -1) {
+            return known;
+        }
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        stack.push(code);
+        while (!stack.isEmpty()) {
+            String c = stack.peek();
+            if (position(c) != -1
+                    || !store.contains(ObjectStore.COMMIT, c)) {
+                stack.pop();
+                continue;
+            }
+            Commit commit = store.readObject(ObjectStore.COMMIT, c,
+                    Commit.class);
+            boolean ready = true;
+            for (String p : new String[] {commit.getParent1(),
+                    commit.getParent2()}) {
+                if (p != null && position(p) == -1
+                        && store.contains(ObjectStore.COMMIT, p)) {
+                    stack.push(p);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                stack.pop();
+                append(c, position(commit.getParent1()),
+                        position(commit.getParent2()),
+                        commit.getTimestamp());
+            }
+        }
+        return position(code);
+    }
+
+    /**
+     * Writes the commits added since the graph was read, if this command
+     * used it. New records are appended and the count is updated after
+     * them, unless the file has to be rewritten or its unsorted tail
+     * grew past TAIL_LIMIT.
+     * @throws IOException
+     */
+    void flush() throws IOException {
+        int count = mapped + codes.size();
+        if (!loaded || saved == count) {
+            return;
+        }
+        if (saved == -1 || count - sorted > TAIL_LIMIT) {
+            rewrite(count);
+        } else {
+            try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+                out.seek(HEADER + (long) saved * RECORD);
+                ByteBuffer records = ByteBuffer.allocate(
+                        (count - saved) * RECORD);
+                for (int i = saved; i < count; i += 1) {
+                    putRecord(records, i);
+                }
+                out.write(records.array());
+                out.setLength(out.getFilePointer());
+                out.getFD().sync();
+                out.seek(8);
+                out.writeInt(count);
+            }
+            saved = count;
+        }
+    }
+
+    /**
+     * Replaces the file with the COUNT records of the graph sorted by
+     * code, then maps it again.
+     * @param count number of records
+     * @throws IOException
+     */
+    private void rewrite(int count) throws IOException {
+        Integer[] order = new Integer[count];
+        byte[][] raw = new byte[count][];
+        for (int i = 0; i < count; i += 1) {
+            order[i] = i;
+            raw[i] = raw(i);
+        }
+        Arrays.sort(order, (x, y) -> Arrays.compareUnsigned(raw[x], raw[y]));
+        int[] moved = new int[count];
+        for (int i = 0; i < count; i += 1) {
+            moved[order[i]] = i;
+        }
+        ByteBuffer out = ByteBuffer.allocate(HEADER + count * RECORD);
+        out.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(count);
+        for (int i : order) {
+            out.put(raw[i]);
+            int p1 = parent1(i);
+            int p2 = parent2(i);
+            out.putInt(p1 == -1 ? -1 : moved[p1]);
+            out.putInt(p2 == -1 ? -1 : moved[p2]);
+            out.putInt(generation(i));
+            out.putLong(time(i));
+        }
+        File tmp = File.createTempFile("graph", ".tmp",
+                file.getParentFile());
+        try {
+            try (RandomAccessFile f = new RandomAccessFile(tmp, "rw")) {
+                f.write(out.array());
+                f.getFD().sync();
+            }
+            java.nio.file.Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tmp.delete();
+        }
+        positions.clear();
+        codes.clear();
+        loaded = false;
+        load();
+    }
+
+    /**
+     * Puts the record at position I into OUT.
+     * @param out buffer of records
+     * @param i position of a commit
+     */
+    private void putRecord(ByteBuffer out, int i) {
+        out.put(raw(i));
+        out.putInt(parent1(i));
+        out.putInt(parent2(i));
+        out.putInt(generation(i));
+        out.putLong(time(i));
+    }
+
+    /**
+     * Maps the graph file on first use, if it is there and valid.
+     * Otherwise the graph starts empty and the file is rewritten when
+     * flushed.
+     */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        buf = null;
+        mapped = 0;
+        sorted = 0;
+        saved = -1;
+        if (!file.isFile()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            if (channel.size() < HEADER) {
+                return;
+            }
+            MappedByteBuffer map = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int count = map.getInt(8);
+            int run = map.getInt(12);
+            if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION
+                    || count < 0 || run < 0 || run > count
+                    || HEADER + (long) count * RECORD > channel.size()) {
+                return;
+            }
+            buf = map;
+            mapped = count;
+            sorted = run;
+            saved = count;
+        } catch (IOException excp) {
+            return;
+        }
+    }
+
+    /**
+     * Returns the position of a commit already in the graph.
+     * @param code code of a commit, or null
+     * @return its position, or -1
+     */
+    private int position(String code) {
+        load();
+        if (code == null) {
+            return -1;
+        }
+        Integer added = positions.get(code);
+        if (added != null) {
+            return added;
+        }
+        if (mapped == 0) {
+            return -1;
+        }
+        byte[] key = Pack.toBytes(code);
+        int lo = 0;
+        int hi = sorted;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int diff = compare(mid, key);
+            if (diff == 0) {
+                return mid;
+            } else if (diff < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = sorted; i < mapped; i += 1) {
+            if (compare(i, key) == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compares the code of the mapped record at position I with KEY, as
+     * unsigned bytes.
+     * @param i position of a mapped record
+     * @param key raw sha1 code
+     * @return negative, zero or positive as the code is less than,
+     *         equal to or greater than KEY
+     */
+    private int compare(int i, byte[] key) {
+        int base = HEADER + i * RECORD;
+        for (int j = 0; j < Pack.CODE_BYTES; j += 1) {
+            int diff = (buf.get(base + j) & 0xff) - (key[j] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the code of the commit at position I.
+     * @param i position of a commit
+     * @return sha1 code
+     */
+    private String code(int i) {
+        if (i >= mapped) {
+            return codes.get(i - mapped);
+        }
+        return ObjectStore.toHex(raw(i));
+    }
+
+    /**
+     * Returns the raw code of the commit at position I.
+     * @param i position of a commit
+     * @return raw sha1 code
+     */
+    private byte[] raw(int i) {
+        if (i >= mapped) {
+            return Pack.toBytes(codes.get(i - mapped));
+        }
+        byte[] result = new byte[Pack.CODE_BYTES];
+        buf.get(HEADER + i * RECORD, result);
+        return result;
+    }
+
+    /**
+     * Returns the position of the first parent of the commit at I.
+     * @param i position of a commit
+     * @return position of its parent, or -1
+     */
+    private int parent1(int i) {
+        if (i >= mapped) {
+            return parent1[i - mapped];
+        }
+        return buf.getInt(HEADER + i * RECORD + Pack.CODE_BYTES);
+    }
+
+    /**
+     * Returns the position of the second parent of the commit at I.
+     * @param i position of a commit
+     * @return position of its parent, or -1
+     */
+    private int parent2(int i) {
+        if (i >= mapped) {
+            return parent2[i - mapped];
+        }
+        return buf.getInt(HEADER + i * RECORD + Pack.CODE_BYTES + 4);
+    }
+
+    /**
+     * Returns the generation of the commit at position I.
+     * @param i position of a commit
+     * @return generation
+     */
+    private int generation(int i) {
+        if (i >= mapped) {
+            return generation[i - mapped];
+        }
+        return buf.getInt(HEADER + i * RECORD + Pack.CODE_BYTES + 8);
+    }
+
+    /**
+     * Returns the time of the commit at position I.
+     * @param i position of a commit
+     * @return time, in milliseconds
+     */
+    private long time(int i) {
+        if (i >= mapped) {
+            return time[i - mapped];
+        }
+        return buf.getLong(HEADER + i * RECORD + Pack.CODE_BYTES + 12);
+    }
+
+    /**
+     * Adds a commit whose parents are already in the graph.
+     * @param code code of the commit
+     * @param p1 position of its first parent, or -1
+     * @param p2 position of its second parent, or -1
+     * @param millis time of the commit
+     */
+    private void append(String code, int p1, int p2, long millis) {
+        int i = codes.size();
+        if (i == time.length) {
+            parent1 = Arrays.copyOf(parent1, i * 2);
+            parent2 = Arrays.copyOf(parent2, i * 2);
+            generation = Arrays.copyOf(generation, i * 2);
+            time = Arrays.copyOf(time, i * 2);
+        }
+        codes.add(code);
+        positions.put(code, mapped + i);
+        parent1[i] = p1;
+        parent2[i] = p2;
+        generation[i] = 1 + Math.max(p1 == -1 ? 0 : generation(p1),
+                p2 == -1 ? 0 : generation(p2));
+        time[i] = millis;
+    }
+}
@@ -0,0 +1,248 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * The codes of the commits of one repository, kept in .gitlet/commit-ids
+ * so that abbreviated commit ids are resolved without listing folders.
+ * Every record of the file is a raw code, except the first, which holds
+ * the magic number CIDS and the number of sorted codes that follow it.
+ * New codes are appended unsorted after those, so a lookup is a binary
+ * search of the sorted run and a scan of the short tail. Once the tail
+ * grows past TAIL_LIMIT the file is rewritten fully sorted.
+ * The file may name commits that were since collected; callers check
+ * that the codes it returns are still stored.
+ * @author Shelden Shi
+ */
+class CommitIds {
+    /** Length of a record. */
+    static final int RECORD = Pack.CODE_BYTES;
+
+    /** Most unsorted codes kept before the file is rewritten. */
+    static final int TAIL_LIMIT = 1024;
+
+    /** First bytes of the file, "CIDS". */
+    private static final int MAGIC = 0x43494453;
+
+    /** the file. */
+    private final File file;
+
+    /** store holding the commits. */
+    private final ObjectStore store;
+
+    /** true iff the file was checked by this command. */
+    private boolean checked;
+
+    /**
+     * Constructor.
+     * @param gitlet a .gitlet folder
+     * @param store store of that folder
+     */
+    CommitIds(File gitlet, ObjectStore store) {
+        file = Utils.join(gitlet, "commit-ids");
+        this.store = store;
+    }
+
+    /**
+     * Returns the file, first building it from the stored commits if it
+     * is missing or invalid. Records appended to it through a
+     * transaction must be raw codes.
+     * @return the file
+     * @throws IOException
+     */
+    File file() throws IOException {
+        if (!checked && !isValid()) {
+            rewrite(store.withPrefix(ObjectStore.COMMIT, ""));
+        }
+        checked = true;
+        return file;
+    }
+
+    /**
+     * Appends the code of a commit copied into the store.
+     * @param code sha1 code of the commit
+     * @throws IOException
+     */
+    void add(String code) throws IOException {
+        try (FileChannel channel = FileChannel.open(file().toPath(),
+                StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            channel.truncate(size - size % RECORD);
+            channel.position(channel.size());
+            ByteBuffer buf = ByteBuffer.wrap(Pack.toBytes(code));
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Returns the codes in the file that start with PREFIX.
+     * @param prefix abbreviated code, in lowercase hex
+     * @return sorted codes
+     * @throws IOException
+     */
+    List<String> withPrefix(String prefix) throws IOException {
+        TreeSet<String> result = new TreeSet<>();
+        if (!prefix.matches("[0-9a-f]{1," + Utils.UID_LENGTH + "}")) {
+            return new ArrayList<>();
+        }
+        StringBuilder low = new StringBuilder(prefix);
+        while (low.length() < Utils.UID_LENGTH) {
+            low.append('0');
+        }
+        byte[] key = Pack.toBytes(low.toString());
+        try (FileChannel channel = FileChannel.open(file().toPath(),
+                StandardOpenOption.READ)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, channel.size() - channel.size() % RECORD);
+            int records = buf.limit() / RECORD;
+            int sorted = buf.getInt(4);
+            int lo = 1;
+            int hi = 1 + sorted;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compare(buf, mid, key) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            for (int i = lo; i <= sorted; i += 1) {
+                String code = code(buf, i);
+                if (!code.startsWith(prefix)) {
+                    break;
+                }
+                result.add(code);
+            }
+            for (int i = 1 + sorted; i < records; i += 1) {
+                String code = code(buf, i);
+                if (code.startsWith(prefix)) {
+                    result.add(code);
+                }
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Rewrites the file fully sorted if this command used it and its
+     * unsorted tail grew past TAIL_LIMIT. Codes of commits no longer
+     * stored are dropped.
+     * @throws IOException
+     */
+    void flush() throws IOException {
+        if (!checked) {
+            return;
+        }
+        int records;
+        int sorted;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            records = (int) (in.length() / RECORD);
+            in.seek(4);
+            sorted = in.readInt();
+        }
+        if (records - 1 - sorted <= TAIL_LIMIT) {
+            return;
+        }
+        ArrayList<String> codes = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, (long) records * RECORD);
+            for (int i = 1; i < records; i += 1) {
+                String code = code(buf, i);
+                if (store.contains(ObjectStore.COMMIT, code)) {
+                    codes.add(code);
+                }
+            }
+        }
+        rewrite(codes);
+    }
+
+    /**
+     * Checks that the file is there and its header is sound.
+     * @return true iff the file can be used
+     */
+    private boolean isValid() {
+        if (!file.isFile() || file.length() < RECORD) {
+            return false;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            int magic = in.readInt();
+            int sorted = in.readInt();
+            return magic == MAGIC && sorted >= 0
+                    && 1 + (long) sorted <= in.length() / RECORD;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /**
+     * Replaces the file with CODES, sorted and without duplicates.
+     * @param codes codes of commits
+     * @throws IOException
+     */
+    private void rewrite(List<String> codes) throws IOException {
+        TreeSet<String> sorted = new TreeSet<>(codes);
+        ByteBuffer buf = ByteBuffer.allocate((1 + sorted.size()) * RECORD);
+        buf.putInt(MAGIC).putInt(sorted.size());
+        buf.position(RECORD);
+        for (String code : sorted) {
+            buf.put(Pack.toBytes(code));
+        }
+        File tmp = File.createTempFile("ids", ".tmp", file.getParentFile());
+        try {
+            try (RandomAccessFile out = new RandomAccessFile(tmp, "rw")) {
+                out.write(buf.array());
+                out.getFD().sync();
+            }
+            java.nio.file.Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Returns the code of the I-th record of BUF.
+     * @param buf mapped file
+     * @param i position of a record other than the first
+     * @return sha1 code
+     */
+    private static String code(ByteBuffer buf, int i) {
+        byte[] raw = new byte[RECORD];
+        buf.get(i * RECORD, raw);
+        return ObjectStore.toHex(raw);
+    }
+
+    /**
+     * Compares the code of the I-th record of BUF with KEY, as unsigned
+     * bytes, which is also the order of their hex forms.
+     * @param buf mapped file
+     * @param i position of a record other than the first
+     * @param key raw sha1 code
+     * @return negative, zero or positive as the code is less than,
+     *         equal to or greater than KEY
+     */
+    private static int compare(ByteBuffer buf, int i, byte[] key) {
+        for (int j = 0; j < RECORD; j += 1) {
+            int diff = (buf.get(i * RECORD + j) & 0xff) - (key[j] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,97 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * On-disk encoding of the files in .gitlet/objects and logs/commits.
+ * A compressed file starts with the DEFLATED header byte followed by a
+ * zlib stream. Files without that byte are read back as they are, so
+ * objects written before compression existed stay readable: those start
+ * with "blob " or with the Java serialization magic number.
+ * The level is read from the gitlet.compression system property.
+ * @author Shelden Shi
+ */
+public class Compression {
+    /** Header byte marking a deflated file. */
+    static final int DEFLATED = 0x01;
+
+    /** Compression level used when none is configured. */
+    static final int DEFAULT_LEVEL = Deflater.BEST_SPEED;
+
+    /**
+     * Returns the configured compression level.
+     * @return a Deflater level between 0 and 9
+     */
+    static int level() {
+        int level = Integer.getInteger("gitlet.compression", DEFAULT_LEVEL);
+        if (level < Deflater.NO_COMPRESSION
+                || level > Deflater.BEST_COMPRESSION) {
+            return DEFAULT_LEVEL;
+        }
+        return level;
+    }
+
+    /**
+     * Writes the header byte to OUT and returns a stream that deflates
+     * everything written to it into OUT.
+     * @param out stream of the file being written
+     * @return compressing stream. Closing it closes OUT.
+     * @throws IOException
+     */
+    static OutputStream deflate(OutputStream out) throws IOException {
+        out.write(DEFLATED);
+        Deflater deflater = new Deflater(level());
+        return new DeflaterOutputStream(out, deflater, Blob.BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the bytes of a compressed file holding CONTENTS.
+     * @param contents uncompressed bytes
+     * @return header byte followed by the deflated contents
+     */
+    static byte[] compress(byte[] contents) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (OutputStream out = deflate(bytes)) {
+                out.write(contents);
+            }
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw Utils.error("Internal error compressing object.");
+        }
+    }
+
+    /**
+     * Returns a stream of the uncompressed contents of the file read
+     * by IN, inflating it iff it starts with the header byte.
+     * @param in stream of a file written by deflate, or of an
+     *           uncompressed object
+     * @return uncompressed stream. Closing it closes IN.
+     * @throws IOException
+     */
+    static InputStream inflate(InputStream in) throws IOException {
+        InputStream buffered = new BufferedInputStream(in, Blob.BUFFER_SIZE);
+        buffered.mark(1);
+        if (buffered.read() == DEFLATED) {
+            return new InflaterInputStream(buffered);
+        }
+        buffered.reset();
+        return buffered;
+    }
+}
@@ -0,0 +1,165 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+/**
+ * A gitlet that keeps running and serves the commands Client sends over
+ * a Unix domain socket, so that scripts running many commands start a
+ * single JVM.
+ * Commands may come from any working directory. Before each command,
+ * Files is pointed at its repository; after it, what was read from that
+ * repository is forgotten, except what stays valid across commands:
+ * blobs, commits and trees, which are named by their contents, the
+ * stage, which is checked against the stamp of its file, and the index
+ * of each repository, which is read again only if its file changed.
+ * Commands are run one at a time, in the order they connect.
+ * The daemon runs commands as its own user, so it only listens in a
+ * folder private to that user, keeps the socket to that user, and hangs
+ * up on clients run by anyone else. A command that fails sends its
+ * error to the client in one line; the stack trace stays in the log of
+ * the daemon.
+ * @author Shelden Shi
+ */
+class Daemon {
+    /**
+     * Serves commands until the process is killed.
+     * @param args Array in format: {'daemon' ['socket path']}
+     * @throws IOException
+     */
+    static void serve(String[] args) throws IOException {
+        if (args.length > 2) {
+            throw new GitletException("Incorrect operands.");
+        }
+        Path socket = null;
+        try {
+            socket = args.length == 2 ? Path.of(args[1]) : Client.socket();
+        } catch (IOException excp) {
+            Main.exitWithError(excp.getMessage());
+        }
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(socket);
+        try (SocketChannel probe = SocketChannel.open(address)) {
+            Main.exitWithError("A gitlet daemon is already running.");
+        } catch (IOException excp) {
+            java.nio.file.Files.deleteIfExists(socket);
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open(
+                StandardProtocolFamily.UNIX)) {
+            server.bind(address);
+            socket.toFile().deleteOnExit();
+            java.nio.file.Files.setPosixFilePermissions(socket,
+                    PosixFilePermissions.fromString("rw-------"));
+            while (true) {
+                try (SocketChannel client = server.accept()) {
+                    if (Client.sameUser(client)) {
+                        handle(client);
+                    }
+                } catch (IOException excp) {
+                    continue;
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the command sent by CLIENT, sending back its output and its
+     * exit status.
+     * @param client connection from a Client
+     * @throws IOException
+     */
+    private static void handle(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(client)));
+        File cwd = new File(in.readUTF());
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readUTF();
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(client)));
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        System.setOut(frames(out, Client.OUT));
+        System.setErr(frames(out, Client.ERR));
+        int status = 0;
+        try {
+            Files.setWorkingDirectory(cwd);
+            Main.run(args);
+        } catch (Main.Exit excp) {
+            status = 0;
+        } catch (IOException | RuntimeException excp) {
+            System.err.println(excp);
+            excp.printStackTrace(stderr);
+            status = 1;
+        } finally {
+            System.out.flush();
+            System.err.flush();
+            System.setOut(stdout);
+            System.setErr(stderr);
+            forget();
+        }
+        out.writeByte(Client.EXIT);
+        out.writeInt(status);
+        out.flush();
+    }
+
+    /**
+     * Forgets what the last command read from its repository and may no
+     * longer be valid for the next one.
+     */
+    private static void forget() {
+        Stage.reset();
+        Index.reset();
+        ObjectStore.reset();
+        CommitGraph.reset();
+        FindIndex.reset();
+    }
+
+    /**
+     * Returns a stream that sends what is printed to it as frames of
+     * KIND.
+     * @param out stream to the client
+     * @param kind Client.OUT or Client.ERR
+     * @return print stream
+     */
+    private static PrintStream frames(DataOutputStream out, int kind) {
+        OutputStream framer = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len)
+                    throws IOException {
+                if (len == 0) {
+                    return;
+                }
+                out.writeByte(kind);
+                out.writeInt(len);
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                out.flush();
+            }
+        };
+        return new PrintStream(new BufferedOutputStream(framer), false,
+                StandardCharsets.UTF_8);
+    }
+}
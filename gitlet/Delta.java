@@ -0,0 +1,187 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Encodes an object as a list of instructions that rebuild it from a
+ * similar base object.
+ * A delta is the varint length of the base and of the result, followed
+ * by instructions. A COPY instruction is the byte COPY, a varint offset
+ * into the base and a varint length. An INSERT instruction is the byte
+ * INSERT, a varint length and that many literal bytes.
+ * @author Shelden Shi
+ */
+class Delta {
+    /** Instruction copying a range of the base. */
+    private static final int COPY = 1;
+
+    /** Instruction inserting literal bytes. */
+    private static final int INSERT = 2;
+
+    /** Length of the blocks of the base that are indexed. */
+    private static final int BLOCK = 16;
+
+    /**
+     * Returns a delta that rebuilds TARGET from BASE.
+     * @param base contents of the base object
+     * @param target contents of the object to encode
+     * @return delta
+     */
+    static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        int[] table = index(base);
+        int mask = table.length - 1;
+        int literal = 0;
+        int i = 0;
+        while (i + BLOCK <= target.length) {
+            int candidate = table[hash(target, i) & mask];
+            if (candidate < 0
+                    || !Arrays.equals(base, candidate, candidate + BLOCK,
+                            target, i, i + BLOCK)) {
+                i += 1;
+                continue;
+            }
+            int start = candidate;
+            int from = i;
+            while (start > 0 && from > literal
+                    && base[start - 1] == target[from - 1]) {
+                start -= 1;
+                from -= 1;
+            }
+            int end = candidate + BLOCK;
+            int to = i + BLOCK;
+            while (end < base.length && to < target.length
+                    && base[end] == target[to]) {
+                end += 1;
+                to += 1;
+            }
+            insert(out, target, literal, from);
+            out.write(COPY);
+            writeVarint(out, start);
+            writeVarint(out, end - start);
+            literal = to;
+            i = to;
+        }
+        insert(out, target, literal, target.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Rebuilds an object from BASE and DELTA.
+     * @param base contents of the base object
+     * @param delta a delta made by create
+     * @return contents of the object
+     */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = new int[] {0};
+        if (readVarint(delta, pos) != base.length) {
+            throw Utils.error("Delta does not match its base.");
+        }
+        byte[] result = new byte[(int) readVarint(delta, pos)];
+        int size = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++];
+            if (op == COPY) {
+                int offset = (int) readVarint(delta, pos);
+                int length = (int) readVarint(delta, pos);
+                System.arraycopy(base, offset, result, size, length);
+                size += length;
+            } else if (op == INSERT) {
+                int length = (int) readVarint(delta, pos);
+                System.arraycopy(delta, pos[0], result, size, length);
+                pos[0] += length;
+                size += length;
+            } else {
+                throw Utils.error("Corrupt delta.");
+            }
+        }
+        if (size != result.length) {
+            throw Utils.error("Corrupt delta.");
+        }
+        return result;
+    }
+
+    /**
+     * Returns a hash table from the hash of each block of BASE to the
+     * offset of the first block with that hash, or -1.
+     * @param base contents of the base object
+     * @return table whose length is a power of two
+     */
+    private static int[] index(byte[] base) {
+        int size = Integer.highestOneBit(Math.max(base.length / BLOCK, 1))
+                * 2;
+        int[] table = new int[size];
+        Arrays.fill(table, -1);
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            int slot = hash(base, i) & (size - 1);
+            if (table[slot] < 0) {
+                table[slot] = i;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Returns the hash of the BLOCK bytes of DATA starting at START.
+     * @param data bytes
+     * @param start offset of the block
+     * @return hash
+     */
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int i = start; i < start + BLOCK; i += 1) {
+            h = h * 31 + data[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Writes an INSERT instruction for TARGET[FROM..TO), if not empty.
+     * @param out delta being written
+     * @param target contents of the object to encode
+     * @param from first byte to insert
+     * @param to end of the bytes to insert
+     */
+    private static void insert(ByteArrayOutputStream out, byte[] target,
+                               int from, int to) {
+        if (from < to) {
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    /**
+     * Writes VALUE seven bits at a time, low bits first.
+     * @param out stream to write to
+     * @param value non-negative number
+     */
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while (value >= 0x80) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Reads a number written by writeVarint.
+     * @param data bytes
+     * @param pos one-element array holding the position to read from,
+     *            which is advanced past the number
+     * @return number
+     */
+    static long readVarint(byte[] data, int[] pos) {
+        long result = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = data[pos[0]++] & 0xff;
+            result |= (long) (b & 0x7f) << shift;
+            if (b < 0x80) {
+                return result;
+            }
+        }
+    }
+}
@@ -2,8 +2,10 @@ package gitlet;
 
 
 import java.io.File;
-import java.io.FileFilter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Stores all the File Object.
@@ -11,76 +13,116 @@ import java.io.IOException;
  */
 public class Files {
     /** Current Working Directory. */
-    public static final File CWD = new File(System.getProperty("user.dir"));
+    public static File CWD;
 
     /** gitlet folder. */
-    public static final File GITLET = Utils.join(CWD, ".gitlet");
+    public static File GITLET;
 
     /** Txt that contains a directory to the head Commit. */
-    public static final File HEAD = Utils.join(GITLET, "HEAD");
+    public static File HEAD;
 
     /** A folder in .gitlet. */
-    public static final File REFS = Utils.join(GITLET, "refs");
+    public static File REFS;
 
     /** logs folder in .gitlet. Contains a commits folder and a refs folder. */
-    public static final File LOGS = Utils.join(GITLET, "logs");
+    public static File LOGS;
 
     /** a folder in LOGS, contains a file for each of the commit we make,
      * named after it's code. */
-    public static final File LOGSCOMMITS = Utils.join(
-            LOGS, "commits");
-
-    /** log for each commits. */
-    public static final File LOGSCOMMITSHIS = Utils.join(
-            LOGSCOMMITS, "commit logs");
+    public static File LOGSCOMMITS;
 
     /** a folder in LOGS, contains a heads folder and a remotes folder. */
-    public static final File LOGSREFS = Utils.join(
-            LOGS, "refs");
+    public static File LOGSREFS;
 
     /** a folder in LOGSREFS, contains a file for each branch.*/
-    public static final File LOGSREFSHEADS = Utils.join(
-            LOGSREFS, "heads");
+    public static File LOGSREFSHEADS;
 
 
     /** a folder in LOGSREFS, contains log of the remote. */
-    public static final File LOGSREFSREMOTE = Utils.join(
-            LOGSREFS, "remotes");
-
-    /** a txt that stores all the log histories lf the master head.*/
-    public static final File LOGSREFSHEADSMASTER = Utils.join(
-            LOGSREFSHEADS, "master");
+    public static File LOGSREFSREMOTE;
 
-    /** a txt that stores all the log histories lf the master head.*/
-    public static final File LOGSREFSHEADSSHARED = Utils.join(
-            LOGSREFSHEADS, "shared");
+    /** a journal of the code of every commit made, oldest first, as
+     * fixed-size raw records. */
+    public static File JOURNAL;
 
     /** objects folder in .gitlet. Contains all the blobs.
      * each of the blob object is stored in a file. */
-    public static final File OBJECTS = Utils.join(
-            GITLET, "objects");
+    public static File OBJECTS;
+
+    /** trees folder in .gitlet. Contains the trees of the commits. */
+    public static File TREES;
+
+    /** a file in .gitlet caching the stat data and blob of working
+     * files. */
+    public static File INDEX;
 
     /** a file in .gitlet for stage objects. */
-    public static final File STAGE = Utils.join(
-            GITLET, "stage");
+    public static File STAGE;
+
+    /** a file in .gitlet where a Monitor logs the working files that
+     * changed. */
+    public static File DIRTY;
 
-    /** a file that stores a hashMap Object for find. */
-    public static final File MESSAGECODE = Utils.join(
-            GITLET, "find");
+    /** a folder in .gitlet where commands leave cookies for a Monitor
+     * to acknowledge. */
+    public static File COOKIES;
 
 
     /** A folder in .gitlet/refs. */
-    public static final File REFSHEADS = Utils.join(
-            REFS, "heads");
+    public static File REFSHEADS;
 
     /** A txt that stores the sh1 code for the head. */
-    public static final File REFSHEADSMASTER = Utils.join(
-            REFSHEADS, "master");
+    public static File REFSHEADSMASTER;
+
+    /** a txt that stores the on-disk format version of .gitlet. */
+    public static File FORMAT;
 
     /** a folder in .gitlet that will contain a file for each remote.
      * each file contains information about the remote's working directory.
      */
-    public static final File REMOTES = Utils.join(GITLET, "remotesDir");
+    public static File REMOTES;
+
+    static {
+        setWorkingDirectory(new File(System.getProperty("user.dir")));
+    }
+
+    /**
+     * Points every file above at the repository of CWD, which the
+     * daemon changes for each command it runs.
+     * @param cwd working directory of the command, absolute
+     */
+    static void setWorkingDirectory(File cwd) {
+        CWD = cwd;
+        GITLET = Utils.join(CWD, ".gitlet");
+        HEAD = Utils.join(GITLET, "HEAD");
+        REFS = Utils.join(GITLET, "refs");
+        LOGS = Utils.join(GITLET, "logs");
+        LOGSCOMMITS = Utils.join(LOGS, "commits");
+        LOGSREFS = Utils.join(LOGS, "refs");
+        LOGSREFSHEADS = Utils.join(LOGSREFS, "heads");
+        LOGSREFSREMOTE = Utils.join(LOGSREFS, "remotes");
+        JOURNAL = Utils.join(LOGS, "journal");
+        OBJECTS = Utils.join(GITLET, "objects");
+        TREES = Utils.join(GITLET, "trees");
+        INDEX = Utils.join(GITLET, "index");
+        STAGE = Utils.join(GITLET, "stage");
+        DIRTY = Utils.join(GITLET, "dirty");
+        COOKIES = Utils.join(GITLET, "cookies");
+        REFSHEADS = Utils.join(REFS, "heads");
+        REFSHEADSMASTER = Utils.join(REFSHEADS, "master");
+        FORMAT = Utils.join(GITLET, "format");
+        REMOTES = Utils.join(GITLET, "remotesDir");
+    }
+
+    /**
+     * Returns the file PATH names, relative to the working directory
+     * unless it is absolute.
+     * @param path a path given by the user
+     * @return file
+     */
+    public static File resolve(String path) {
+        return CWD.toPath().resolve(path).toFile();
+    }
 
     /** Creates folders and texts to store. */
     public static void fileInitializer() throws IOException {
@@ -92,14 +134,13 @@ public class Files {
         LOGSCOMMITS.mkdir();
         LOGSREFS.mkdir();
         LOGSREFSHEADS.mkdir();
-        LOGSREFSHEADSMASTER.createNewFile();
-        LOGSREFSHEADSSHARED.createNewFile();
+        JOURNAL.createNewFile();
         LOGSREFSREMOTE.mkdir();
         STAGE.createNewFile();
-        MESSAGECODE.createNewFile();
         OBJECTS.mkdir();
-        LOGSCOMMITSHIS.mkdir();
+        TREES.mkdir();
         REMOTES.mkdir();
+        Utils.writeContents(FORMAT, Integer.toString(Migration.VERSION));
     }
 
     /**
@@ -114,17 +155,81 @@ public class Files {
     }
 
     /**
-     * A FileFilter that exclude .gitlet.
-     * @return a filter.
+     * Same as updateHead, but writes the refs as part of TX.
+     * @param branch current branch name
+     * @param code code of this Commit
+     * @param tx transaction the refs are written in
+     */
+    public static void updateHead(String branch, String code,
+                                  Transaction tx) {
+        File file = Utils.join(Files.REFSHEADS, branch);
+        tx.writeRef(file, code);
+        tx.writeRef(Files.HEAD, file.getPath());
+    }
+
+    /**
+     * Returns the file that stores the object with the given code in DIR.
+     * Objects are kept in fan-out subfolders named by the first two
+     * hex digits of their code, so that no folder grows too large.
+     * @param dir OBJECTS, LOGSCOMMITS, TREES or the same folder of a remote
+     * @param code sha1 code of the object
+     * @return object file
+     */
+    public static File objectFile(File dir, String code) {
+        if (code.length() <= 2) {
+            return Utils.join(dir, code);
+        }
+        return Utils.join(dir, code.substring(0, 2), code.substring(2));
+    }
+
+    /**
+     * Same as objectFile, but creates the fan-out subfolder if needed.
+     * @param dir OBJECTS, LOGSCOMMITS, TREES or the same folder of a remote
+     * @param code sha1 code of the object
+     * @return object file
+     */
+    public static File newObjectFile(File dir, String code) {
+        File file = objectFile(dir, code);
+        file.getParentFile().mkdir();
+        return file;
+    }
+
+    /**
+     * Returns the codes of all objects in DIR that start with PREFIX.
+     * Only one fan-out subfolder is listed unless PREFIX is shorter
+     * than two characters. A missing DIR holds no objects.
+     * @param dir OBJECTS, LOGSCOMMITS, TREES or the same folder of a
+     *            remote
+     * @param prefix abbreviated code
+     * @return sorted list of codes
      */
-    public static FileFilter filter() {
-        FileFilter filter = file -> {
-            if (file.isDirectory() || file.isHidden()) {
-                return false;
+    public static List<String> objectsWithPrefix(File dir, String prefix) {
+        ArrayList<String> codes = new ArrayList<>();
+        List<String> shards = new ArrayList<>();
+        if (prefix.length() >= 2) {
+            shards.add(prefix.substring(0, 2));
+        } else if (dir.isDirectory()) {
+            for (File shard : dir.listFiles(File::isDirectory)) {
+                if (shard.getName().length() == 2) {
+                    shards.add(shard.getName());
+                }
+            }
+        }
+        for (String shard : shards) {
+            List<String> names = Utils.plainFilenamesIn(
+                    Utils.join(dir, shard));
+            if (names == null) {
+                continue;
+            }
+            for (String name : names) {
+                String code = shard + name;
+                if (code.startsWith(prefix)) {
+                    codes.add(code);
+                }
             }
-            return true;
-        };
-        return filter;
+        }
+        Collections.sort(codes);
+        return codes;
     }
 
 }
@@ -0,0 +1,528 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * On-disk index from commit messages to commits, used by find.
+ * Each message is indexed under three kinds of keys: the whole message,
+ * each of its words, and each run of three characters, the last two
+ * lowercased, so that exact, word and substring queries only read the
+ * postings of their own keys.
+ * Postings are appended to find-postings, each holding the 64-bit hash
+ * of a key, the raw code of a commit and the position of the previous
+ * posting in the same bucket. find-table maps each bucket to its newest
+ * posting, so a key's postings form a chain that is walked through a
+ * mapped file. Hashes may collide, so every answer is checked against
+ * the commit's message. Both files start with the same random stamp,
+ * and if they do not match, the index is rebuilt from the journal.
+ * The table also records how much of the journal it covers, and the
+ * commits past that are indexed before the next query, so a commit a
+ * crash kept out of the index is found all the same.
+ * The table doubles when its chains grow longer than LOAD on average.
+ * @author Shelden Shi
+ */
+class FindIndex {
+    /** Query matching whole messages. */
+    static final int EXACT = 0;
+
+    /** Query matching a word of messages. */
+    static final int TOKEN = 1;
+
+    /** Query matching any part of messages. */
+    static final int SUBSTRING = 2;
+
+    /** Length of a gram. */
+    private static final int GRAM = 3;
+
+    /** First bytes of both files, "GFND". */
+    private static final int MAGIC = 0x47464e44;
+
+    /** Length of the header of the postings: magic and stamp. */
+    private static final int POSTINGS_HEADER = 4 + 8;
+
+    /** Length of the header of the table: magic, stamp, number of
+     * buckets, length of the postings it covers and length of the
+     * journal it covers, or -1 while its heads are being written. */
+    private static final int TABLE_HEADER = 4 + 8 + 4 + 8 + 8;
+
+    /** Length of a posting. */
+    private static final int RECORD = 8 + Pack.CODE_BYTES + 8;
+
+    /** Fewest buckets. */
+    private static final int MIN_BUCKETS = 1 << 10;
+
+    /** Average chain length past which the table doubles. */
+    private static final int LOAD = 8;
+
+    /** Index of the local repository. */
+    private static FindIndex local;
+
+    /** file of postings. */
+    private final File postingsFile;
+
+    /** file of bucket heads. */
+    private final File tableFile;
+
+    /**
+     * Constructor.
+     * @param gitlet a .gitlet folder
+     */
+    private FindIndex(File gitlet) {
+        postingsFile = Utils.join(gitlet, "find-postings");
+        tableFile = Utils.join(gitlet, "find-table");
+    }
+
+    /**
+     * Returns the index of the local repository.
+     * @return find index
+     */
+    static FindIndex local() {
+        if (local == null) {
+            local = new FindIndex(Files.GITLET);
+        }
+        return local;
+    }
+
+    /** Forgets the index of the local repository, which the next
+     * command the daemon runs may not share. */
+    static void reset() {
+        local = null;
+    }
+
+    /**
+     * Indexes the messages of the commits of the journal that the index
+     * does not cover yet, such as a commit just made, or one a crash
+     * kept out of the index. Only that part of the journal is read.
+     * @throws IOException
+     */
+    void update() throws IOException {
+        long length = journalLength();
+        if (!isValid()) {
+            rebuild(MIN_BUCKETS, length);
+            return;
+        }
+        int buckets;
+        long covered;
+        boolean stale;
+        try (RandomAccessFile table = new RandomAccessFile(tableFile, "rw");
+             RandomAccessFile postings = new RandomAccessFile(
+                     postingsFile, "rw")) {
+            table.seek(4 + 8);
+            buckets = table.readInt();
+            covered = table.readLong();
+            long journaled = table.readLong();
+            if (journaled == length) {
+                return;
+            }
+            stale = journaled > length;
+            if (!stale) {
+                covered = append(table, postings, buckets, covered,
+                        journal(journaled, length), length);
+            }
+        }
+        if (stale) {
+            rebuild(MIN_BUCKETS, length);
+        } else if ((covered - POSTINGS_HEADER) / RECORD
+                > (long) buckets * LOAD) {
+            relink(buckets * 2, length);
+        }
+    }
+
+    /**
+     * Appends the postings of the commits of JOURNAL, then links them
+     * into the table.
+     * @param table the table file
+     * @param postings the postings file
+     * @param buckets number of buckets
+     * @param covered length of the postings the table covers
+     * @param journal the records of the journal to index
+     * @param length length of the journal once they are indexed
+     * @return length of the postings the table now covers
+     * @throws IOException
+     */
+    private static long append(RandomAccessFile table,
+                               RandomAccessFile postings, int buckets,
+                               long covered, ByteBuffer journal,
+                               long length) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buf);
+        HashMap<Integer, Long> heads = new HashMap<>();
+        long pos = covered;
+        for (String code : commits(journal)) {
+            byte[] raw = Pack.toBytes(code);
+            for (String key : keys(Commit.getCommitObj(code)
+                    .getMessage())) {
+                long hash = hash(key);
+                int slot = bucket(hash, buckets);
+                Long prev = heads.get(slot);
+                if (prev == null) {
+                    table.seek(TABLE_HEADER + (long) slot * 8);
+                    prev = table.readLong();
+                }
+                out.writeLong(hash);
+                out.write(raw);
+                out.writeLong(prev);
+                heads.put(slot, pos);
+                pos += RECORD;
+            }
+        }
+        postings.setLength(covered);
+        postings.seek(covered);
+        postings.write(buf.toByteArray());
+        postings.getFD().sync();
+        table.seek(4 + 8 + 4 + 8);
+        table.writeLong(-1);
+        for (Map.Entry<Integer, Long> e : heads.entrySet()) {
+            table.seek(TABLE_HEADER + (long) e.getKey() * 8);
+            table.writeLong(e.getValue());
+        }
+        table.seek(4 + 8 + 4);
+        table.write(ByteBuffer.allocate(16).putLong(pos).putLong(length)
+                .array());
+        return pos;
+    }
+
+    /**
+     * Returns the commits whose message matches QUERY, oldest first.
+     * @param query text to look for
+     * @param mode EXACT, TOKEN or SUBSTRING
+     * @return codes of the matching commits
+     * @throws IOException
+     */
+    List<String> find(String query, int mode) throws IOException {
+        update();
+        List<String> keys = new ArrayList<>();
+        if (mode == EXACT) {
+            keys.add("m:" + query);
+        } else if (mode == TOKEN) {
+            keys.add("t:" + query.toLowerCase());
+        } else {
+            for (String key : keys(query)) {
+                if (key.startsWith("g:")) {
+                    keys.add(key);
+                }
+            }
+        }
+        Set<String> candidates = null;
+        if (keys.isEmpty()) {
+            candidates = new LinkedHashSet<>(commits(
+                    journal(0, journalLength())));
+        }
+        try (FileChannel table = FileChannel.open(tableFile.toPath(),
+                StandardOpenOption.READ);
+             FileChannel postings = FileChannel.open(postingsFile.toPath(),
+                     StandardOpenOption.READ)) {
+            MappedByteBuffer heads = table.map(FileChannel.MapMode.READ_ONLY,
+                    0, table.size());
+            MappedByteBuffer records = postings.map(
+                    FileChannel.MapMode.READ_ONLY, 0, heads.getLong(16));
+            for (String key : keys) {
+                Set<String> found = postings(heads, records, key);
+                if (candidates == null) {
+                    candidates = found;
+                } else {
+                    candidates.retainAll(found);
+                }
+            }
+        }
+        ArrayList<String> result = new ArrayList<>();
+        for (String code : candidates) {
+            if (ObjectStore.local().contains(ObjectStore.COMMIT, code)
+                    && matches(Commit.getCommitObj(code).getMessage(),
+                    query, mode)) {
+                result.add(code);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks a commit message against a query.
+     * @param message a commit message
+     * @param query text looked for
+     * @param mode EXACT, TOKEN or SUBSTRING
+     * @return true iff MESSAGE matches
+     */
+    private static boolean matches(String message, String query, int mode) {
+        if (mode == EXACT) {
+            return message.equals(query);
+        } else if (mode == TOKEN) {
+            return keys(message).contains("t:" + query.toLowerCase());
+        }
+        return message.contains(query);
+    }
+
+    /**
+     * Returns the commits posted under KEY, oldest first.
+     * @param heads mapped table
+     * @param records mapped postings
+     * @param key a key
+     * @return codes of the commits
+     */
+    private static Set<String> postings(MappedByteBuffer heads,
+                                        MappedByteBuffer records,
+                                        String key) {
+        long hash = hash(key);
+        int slot = bucket(hash, heads.getInt(12));
+        ArrayList<String> codes = new ArrayList<>();
+        byte[] raw = new byte[Pack.CODE_BYTES];
+        long pos = heads.getLong(TABLE_HEADER + slot * 8);
+        while (pos >= POSTINGS_HEADER && pos + RECORD <= records.limit()) {
+            if (records.getLong((int) pos) == hash) {
+                records.get((int) pos + 8, raw);
+                codes.add(ObjectStore.toHex(raw));
+            }
+            pos = records.getLong((int) pos + 8 + Pack.CODE_BYTES);
+        }
+        Collections.reverse(codes);
+        return new LinkedHashSet<>(codes);
+    }
+
+    /**
+     * Checks that both files are there, and were written together.
+     * @return true iff the index can be used
+     */
+    private boolean isValid() {
+        if (!tableFile.isFile() || !postingsFile.isFile()
+                || tableFile.length() < TABLE_HEADER
+                || postingsFile.length() < POSTINGS_HEADER) {
+            return false;
+        }
+        try (RandomAccessFile table = new RandomAccessFile(tableFile, "r");
+             RandomAccessFile postings = new RandomAccessFile(
+                     postingsFile, "r")) {
+            int magic = table.readInt();
+            long stamp = table.readLong();
+            int buckets = table.readInt();
+            long covered = table.readLong();
+            long journaled = table.readLong();
+            return magic == MAGIC && postings.readInt() == MAGIC
+                    && journaled >= 0
+                    && postings.readLong() == stamp
+                    && tableFile.length() == TABLE_HEADER + buckets * 8L
+                    && covered <= postings.length()
+                    && (covered - POSTINGS_HEADER) % RECORD == 0;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /**
+     * Builds the index again from the messages of the commits in the
+     * journal.
+     * @param buckets number of buckets
+     * @param length length of the journal
+     * @throws IOException
+     */
+    private void rebuild(int buckets, long length) throws IOException {
+        ArrayList<Long> hashes = new ArrayList<>();
+        ArrayList<String> codes = new ArrayList<>();
+        for (String code : commits(journal(0, length))) {
+            for (String key : keys(Commit.getCommitObj(code).getMessage())) {
+                hashes.add(hash(key));
+                codes.add(code);
+            }
+        }
+        while ((long) hashes.size() > (long) buckets * LOAD) {
+            buckets *= 2;
+        }
+        write(hashes, codes, buckets, length);
+    }
+
+    /**
+     * Rewrites the index with BUCKETS buckets, reading the keys back
+     * from the postings.
+     * @param buckets number of buckets
+     * @param journaled length of the journal the postings cover
+     * @throws IOException
+     */
+    private void relink(int buckets, long journaled) throws IOException {
+        ArrayList<Long> hashes = new ArrayList<>();
+        ArrayList<String> codes = new ArrayList<>();
+        try (FileChannel postings = FileChannel.open(postingsFile.toPath(),
+                StandardOpenOption.READ)) {
+            MappedByteBuffer records = postings.map(
+                    FileChannel.MapMode.READ_ONLY, 0, postings.size());
+            byte[] raw = new byte[Pack.CODE_BYTES];
+            for (int pos = POSTINGS_HEADER; pos + RECORD <= records.limit();
+                 pos += RECORD) {
+                hashes.add(records.getLong(pos));
+                records.get(pos + 8, raw);
+                codes.add(ObjectStore.toHex(raw));
+            }
+        }
+        write(hashes, codes, buckets, journaled);
+    }
+
+    /**
+     * Writes both files from scratch under a new stamp, postings first.
+     * @param hashes hash of the key of each posting, oldest first
+     * @param codes code of the commit of each posting
+     * @param buckets number of buckets
+     * @param journaled length of the journal the postings cover
+     * @throws IOException
+     */
+    private void write(List<Long> hashes, List<String> codes, int buckets,
+                       long journaled) throws IOException {
+        long stamp = new Random().nextLong();
+        long[] heads = new long[buckets];
+        Arrays.fill(heads, -1);
+        ByteBuffer postings = ByteBuffer.allocate(
+                POSTINGS_HEADER + hashes.size() * RECORD);
+        postings.putInt(MAGIC).putLong(stamp);
+        for (int i = 0; i < hashes.size(); i += 1) {
+            long hash = hashes.get(i);
+            int slot = bucket(hash, buckets);
+            long pos = postings.position();
+            postings.putLong(hash).put(Pack.toBytes(codes.get(i)))
+                    .putLong(heads[slot]);
+            heads[slot] = pos;
+        }
+        ByteBuffer table = ByteBuffer.allocate(TABLE_HEADER + buckets * 8);
+        table.putInt(MAGIC).putLong(stamp).putInt(buckets)
+                .putLong(postings.position()).putLong(journaled);
+        for (long head : heads) {
+            table.putLong(head);
+        }
+        replace(postingsFile, postings.array());
+        replace(tableFile, table.array());
+    }
+
+    /**
+     * Replaces FILE with CONTENTS through a synced temporary file.
+     * @param file file to replace
+     * @param contents new contents
+     * @throws IOException
+     */
+    private static void replace(File file, byte[] contents)
+            throws IOException {
+        File tmp = File.createTempFile("find", ".tmp", file.getParentFile());
+        try {
+            try (RandomAccessFile out = new RandomAccessFile(tmp, "rw")) {
+                out.write(contents);
+                out.getFD().sync();
+            }
+            java.nio.file.Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Returns the length of the journal, without the record a crash may
+     * have cut short at its end.
+     * @return length of the whole records of the journal
+     */
+    private static long journalLength() {
+        long size = Files.JOURNAL.length();
+        return size - size % Pack.CODE_BYTES;
+    }
+
+    /**
+     * Reads the records of the journal from FROM to TO.
+     * @param from offset of the first record
+     * @param to offset past the last record
+     * @return the records, positioned at the first
+     * @throws IOException
+     */
+    private static ByteBuffer journal(long from, long to)
+            throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) (to - from));
+        if (to == from) {
+            return buf;
+        }
+        try (FileChannel channel = FileChannel.open(Files.JOURNAL.toPath(),
+                StandardOpenOption.READ)) {
+            while (buf.hasRemaining()
+                    && channel.read(buf, from + buf.position()) > 0) {
+                continue;
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Returns the codes of the stored commits in the rest of JOURNAL,
+     * oldest first.
+     * @param journal the journal, positioned at a record
+     * @return codes of commits
+     */
+    private static List<String> commits(ByteBuffer journal) {
+        ArrayList<String> codes = new ArrayList<>();
+        byte[] record = new byte[Pack.CODE_BYTES];
+        while (journal.remaining() >= record.length) {
+            journal.get(record);
+            String code = ObjectStore.toHex(record);
+            if (ObjectStore.local().contains(ObjectStore.COMMIT, code)) {
+                codes.add(code);
+            }
+        }
+        return codes;
+    }
+
+    /**
+     * Returns the keys MESSAGE is indexed under: the whole message, its
+     * lowercased words and its lowercased grams.
+     * @param message a commit message
+     * @return keys, each prefixed by its kind
+     */
+    static Set<String> keys(String message) {
+        LinkedHashSet<String> keys = new LinkedHashSet<>();
+        keys.add("m:" + message);
+        String lower = message.toLowerCase();
+        for (String token : lower.split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                keys.add("t:" + token);
+            }
+        }
+        for (int i = 0; i + GRAM <= lower.length(); i += 1) {
+            keys.add("g:" + lower.substring(i, i + GRAM));
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the 64-bit FNV-1a hash of KEY.
+     * @param key a key
+     * @return hash
+     */
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     * Returns the bucket of HASH.
+     * @param hash hash of a key
+     * @param buckets number of buckets, a power of two
+     * @return bucket
+     */
+    private static int bucket(long hash, int buckets) {
+        return (int) (hash ^ (hash >>> 32)) & (buckets - 1);
+    }
+}
@@ -0,0 +1,257 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Deletes the loose blobs and trees that no commit and no staged file
+ * can reach. Commits themselves are never deleted, since global-log,
+ * find and reset by id promise to reach every commit ever made, so
+ * marking starts from every commit in the journal, from every file under
+ * refs/heads, which includes the branches fetched from remotes, and
+ * from the stage. Each line of first
+ * parents is walked by one task, which forks a task for the tree or the
+ * blobs of each commit and one for each second parent, and every object
+ * is marked at most once, so subtrees shared by commits are walked
+ * once. Objects younger than the grace period are kept, since a command
+ * running at the same time may not have referenced them yet. Packed
+ * objects are left alone.
+ * @author Shelden Shi
+ */
+class GarbageCollector {
+    /** Default age, in milliseconds, below which objects are kept. */
+    static final long GRACE = 14L * 24 * 60 * 60 * 1000;
+
+    /** store being collected. */
+    private final ObjectStore store;
+
+    /** codes of the objects found reachable so far. */
+    private final Set<String> marked = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Constructor.
+     * @param store store being collected
+     */
+    private GarbageCollector(ObjectStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Deletes the unreachable loose blobs and trees of the local
+     * repository that were last modified more than GRACE milliseconds
+     * ago.
+     * @param grace age below which objects are kept
+     * @return number of bytes reclaimed
+     * @throws IOException
+     */
+    static long collect(long grace) throws IOException {
+        GarbageCollector gc = new GarbageCollector(ObjectStore.local());
+        ArrayList<String> roots = new ArrayList<>();
+        refs(Files.REFSHEADS, roots);
+        journal(roots);
+        gc.mark(roots, Stage.getSTAGE().getAddNameCodeMap().values());
+        long cutoff = System.currentTimeMillis() - grace;
+        return gc.sweep(ObjectStore.BLOB, cutoff)
+                + gc.sweep(ObjectStore.TREE, cutoff);
+    }
+
+    /**
+     * Adds the code of every commit in the journal to ROOTS.
+     * @param roots codes of the commits to mark from
+     * @throws IOException
+     */
+    private static void journal(List<String> roots) throws IOException {
+        ByteBuffer journal = ByteBuffer.wrap(
+                java.nio.file.Files.readAllBytes(Files.JOURNAL.toPath()));
+        byte[] record = new byte[Pack.CODE_BYTES];
+        while (journal.remaining() >= record.length) {
+            journal.get(record);
+            roots.add(ObjectStore.toHex(record));
+        }
+    }
+
+    /**
+     * Adds the commit codes stored in the files under DIR to ROOTS.
+     * @param dir refs folder, or a folder of remote branches in it
+     * @param roots codes of the branch heads
+     */
+    private static void refs(File dir, List<String> roots) {
+        for (File file : dir.listFiles()) {
+            if (file.isDirectory()) {
+                refs(file, roots);
+            } else {
+                String code = Utils.readContentsAsString(file).trim();
+                if (!code.isEmpty()) {
+                    roots.add(code);
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks every object reachable from the commits ROOTS and the blobs
+     * STAGED, in parallel.
+     * @param roots codes of commits
+     * @param staged codes of blobs
+     */
+    private void mark(List<String> roots, Collection<String> staged) {
+        ArrayList<RecursiveAction> tasks = new ArrayList<>();
+        for (String root : roots) {
+            tasks.add(new MarkCommits(root));
+        }
+        tasks.add(new MarkBlobs(staged));
+        ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+    }
+
+    /**
+     * Deletes the unmarked loose objects of a type older than CUTOFF,
+     * and the temporary files writes left behind.
+     * @param type BLOB or TREE
+     * @param cutoff time before which unmarked objects are deleted
+     * @return number of bytes deleted
+     */
+    private long sweep(byte type, long cutoff) {
+        long reclaimed = 0;
+        File dir = store.dir(type);
+        for (String code : Files.objectsWithPrefix(dir, "")) {
+            File file = Files.objectFile(dir, code);
+            if (!marked.contains(code) && file.lastModified() < cutoff) {
+                long length = file.length();
+                if (file.delete()) {
+                    reclaimed += length;
+                    file.getParentFile().delete();
+                }
+            }
+        }
+        for (File file : dir.listFiles(File::isFile)) {
+            if (file.getName().endsWith(".tmp")
+                    && file.lastModified() < cutoff) {
+                long length = file.length();
+                if (file.delete()) {
+                    reclaimed += length;
+                }
+            }
+        }
+        return reclaimed;
+    }
+
+    /** Marks a commit, its first parents and everything they reach. */
+    private class MarkCommits extends RecursiveAction {
+        /** code of the first commit to mark. */
+        private final String start;
+
+        /**
+         * Constructor.
+         * @param start code of the first commit to mark
+         */
+        MarkCommits(String start) {
+            this.start = start;
+        }
+
+        @Override
+        protected void compute() {
+            ArrayList<ForkJoinTask<Void>> forked = new ArrayList<>();
+            String code = start;
+            while (code != null && marked.add(code)
+                    && store.contains(ObjectStore.COMMIT, code)) {
+                Commit commit;
+                try (InputStream in = store.open(ObjectStore.COMMIT, code)) {
+                    commit = Codec.decode(in.readAllBytes(), Commit.class);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+                if (commit.getTree() != null) {
+                    forked.add(new MarkTree(commit.getTree()).fork());
+                } else {
+                    forked.add(new MarkBlobs(
+                            commit.getNameBlobMap().values()).fork());
+                }
+                if (commit.getParent2() != null) {
+                    forked.add(new MarkCommits(commit.getParent2()).fork());
+                }
+                code = commit.getParent1();
+            }
+            for (ForkJoinTask<Void> task : forked) {
+                task.join();
+            }
+        }
+    }
+
+    /** Marks a tree, its subtrees and their blobs. */
+    private class MarkTree extends RecursiveAction {
+        /** code of the tree to mark. */
+        private final String code;
+
+        /**
+         * Constructor.
+         * @param code code of the tree to mark
+         */
+        MarkTree(String code) {
+            this.code = code;
+        }
+
+        @Override
+        protected void compute() {
+            if (!marked.add(code)
+                    || !store.contains(ObjectStore.TREE, code)) {
+                return;
+            }
+            Tree tree;
+            try (InputStream in = store.open(ObjectStore.TREE, code)) {
+                tree = Codec.decode(in.readAllBytes(), Tree.class);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            ArrayList<RecursiveAction> tasks = new ArrayList<>();
+            tasks.add(new MarkBlobs(tree.getBlobs().values()));
+            for (String subtree : tree.getTrees().values()) {
+                tasks.add(new MarkTree(subtree));
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    /** Marks blobs and, for the chunked ones, their chunks. */
+    private class MarkBlobs extends RecursiveAction {
+        /** codes of the blobs to mark. */
+        private final Collection<String> codes;
+
+        /**
+         * Constructor.
+         * @param codes codes of the blobs to mark
+         */
+        MarkBlobs(Collection<String> codes) {
+            this.codes = codes;
+        }
+
+        @Override
+        protected void compute() {
+            for (String code : codes) {
+                if (!marked.add(code)
+                        || !store.contains(ObjectStore.BLOB, code)) {
+                    continue;
+                }
+                try {
+                    marked.addAll(Blob.chunks(store, code));
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,546 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The stat data of the working files last hashed, kept in .gitlet/index
+ * with the code of their blob, so that a file whose modification time,
+ * size and inode did not change is not read again.
+ * A file changed in the same clock tick as it was hashed keeps its stat
+ * data, so entries are only trusted when they are older than the index
+ * file itself, and entries as new as the index when it is written are
+ * stored smudged, which makes the next command hash them again.
+ * The index is encoded through Codec but not compressed, and is only
+ * read by the first command that needs it. Files may be looked up from
+ * several threads at once. The daemon keeps the indexes it read, and
+ * reads one again only if its file changed since.
+ * While a Monitor watches the working directory, the index also holds
+ * the token of the last changes it reported and the path of every
+ * working file as of that token. Entries checked since the watch began
+ * are then trusted without even reading their stat data, until the
+ * monitor reports their file changed, and only by a command that has
+ * read what the monitor reported up to when it started.
+ * @author Shelden Shi
+ */
+class Index {
+    /** Version of the encoding of the index. */
+    static final int VERSION = 2;
+
+    /** Most files stored by one task of storeAll. */
+    static final int BATCH = 16;
+
+    /** Size recorded for an entry that must be hashed again. */
+    private static final long SMUDGED = -1;
+
+    /** Most indexes the daemon keeps read between commands. */
+    static final int WARM_LIMIT = 16;
+
+    /** index of the local repository. */
+    private static Index local;
+
+    /** indexes read by earlier commands of the daemon, by file, least
+     * recently used first. */
+    private static final LinkedHashMap<File, Index> WARM =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<File, Index> eldest) {
+                    return size() > WARM_LIMIT;
+                }
+            };
+
+    /** true iff stat data may include inodes. */
+    private static boolean unixView = true;
+
+    /** the index file. */
+    private final File file;
+
+    /** entries by path, null until read. */
+    private TreeMap<String, Entry> entries;
+
+    /** modification time of the index file when read, in nanoseconds. */
+    private long stamp;
+
+    /** true iff entries changed since they were read. */
+    private boolean dirty;
+
+    /** modification time and length of the index file when ENTRIES
+     * were read or written. */
+    private String fileStamp;
+
+    /** token of the last changes the monitor reported, or null if the
+     * working directory is not being watched. */
+    private String token;
+
+    /** path of every working file as of TOKEN, sorted, or null. */
+    private List<String> snapshot;
+
+    /** true iff this command read the changes the monitor reported, so
+     * that watched entries may be trusted. */
+    private volatile boolean current;
+
+    /** Stores the blobs of a range of files. */
+    private class Store extends RecursiveAction {
+        /** paths of the files. */
+        private final List<String> paths;
+
+        /** code of the blob of each file, filled in by this task. */
+        private final String[] codes;
+
+        /** first file of the range. */
+        private final int lo;
+
+        /** end of the range. */
+        private final int hi;
+
+        /**
+         * Constructor.
+         * @param paths paths of the files
+         * @param codes receives the code of the blob of each file
+         * @param lo first file of the range
+         * @param hi end of the range
+         */
+        Store(List<String> paths, String[] codes, int lo, int hi) {
+            this.paths = paths;
+            this.codes = codes;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > BATCH) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new Store(paths, codes, lo, mid),
+                        new Store(paths, codes, mid, hi));
+                return;
+            }
+            try {
+                for (int i = lo; i < hi; i += 1) {
+                    codes[i] = store(paths.get(i));
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Stat data and blob of one working file. */
+    private static class Entry {
+        /** modification time, in nanoseconds. */
+        private final long mtime;
+
+        /** length, or SMUDGED. */
+        private final long size;
+
+        /** inode, or 0 if unknown. */
+        private final long inode;
+
+        /** sha1 code of the blob of the file. */
+        private final String code;
+
+        /** true iff the file was checked while the monitor watched it,
+         * and it reported no change since. */
+        private final boolean watched;
+
+        /**
+         * Constructor.
+         * @param mtime modification time, in nanoseconds
+         * @param size length, or SMUDGED
+         * @param inode inode, or 0 if unknown
+         * @param code sha1 code of the blob of the file
+         * @param watched true iff the monitor vouches for the entry
+         */
+        Entry(long mtime, long size, long inode, String code,
+              boolean watched) {
+            this.mtime = mtime;
+            this.size = size;
+            this.inode = inode;
+            this.code = code;
+            this.watched = watched;
+        }
+
+        /**
+         * Returns this entry with WATCHED changed.
+         * @param value new value of watched
+         * @return entry
+         */
+        Entry watched(boolean value) {
+            return new Entry(mtime, size, inode, code, value);
+        }
+
+        /**
+         * Checks that this entry has the same stat data as OTHER.
+         * @param other entry read from the file system
+         * @return true iff they match
+         */
+        boolean sameStat(Entry other) {
+            return mtime == other.mtime && size == other.size
+                    && inode == other.inode;
+        }
+    }
+
+    /**
+     * Constructor.
+     * @param file the index file
+     */
+    Index(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the index of the local repository.
+     * @return index
+     */
+    static synchronized Index local() {
+        if (local == null) {
+            local = WARM.computeIfAbsent(Files.INDEX, Index::new);
+            if (local.entries != null
+                    && !local.fileStamp().equals(local.fileStamp)) {
+                local.entries = null;
+            }
+        }
+        return local;
+    }
+
+    /** Forgets the index of the local repository, which the next
+     * command the daemon runs may not share. Its entries are kept for
+     * later commands unless this command left them unsaved. */
+    static synchronized void reset() {
+        if (local != null && local.dirty) {
+            local.entries = null;
+            local.dirty = false;
+        }
+        if (local != null) {
+            local.current = false;
+        }
+        local = null;
+    }
+
+    /**
+     * Returns the code of the blob of the working file at PATH, hashing
+     * it only if its stat data changed.
+     * @param path path from the working directory
+     * @return sha1 code
+     * @throws IOException
+     */
+    String hash(String path) throws IOException {
+        return lookup(path, false);
+    }
+
+    /**
+     * Same as hash, but also stores the blob if the store lacks it.
+     * @param path path from the working directory
+     * @return sha1 code of the stored blob
+     * @throws IOException
+     */
+    String store(String path) throws IOException {
+        return lookup(path, true);
+    }
+
+    /**
+     * Same as store, for many files at once. The files are split into
+     * batches that are hashed and stored in parallel on the common
+     * fork/join pool, which is bounded by the number of cores. The
+     * changes the monitor reported are read first, if any, so that the
+     * files it vouches for need not be checked.
+     * @param paths paths from the working directory
+     * @return sha1 code of the stored blob of each file, by path
+     */
+    Map<String, String> storeAll(Collection<String> paths) {
+        if (!current && token() != null) {
+            WorkingTree.paths();
+        }
+        List<String> list = new ArrayList<>(paths);
+        String[] codes = new String[list.size()];
+        ForkJoinPool.commonPool().invoke(new Store(list, codes, 0,
+                list.size()));
+        HashMap<String, String> result = new HashMap<>();
+        for (int i = 0; i < codes.length; i += 1) {
+            result.put(list.get(i), codes[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Drops the entries of the files that are no longer there.
+     * @param paths paths of every working file
+     */
+    void retain(Collection<String> paths) {
+        if (entries().keySet().retainAll(paths)) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Returns the token of the last changes the monitor reported.
+     * @return token, or null if the working directory is not watched
+     */
+    String token() {
+        entries();
+        return token;
+    }
+
+    /**
+     * Returns the path of every working file as of the token.
+     * @return sorted paths, or null if there is no token
+     */
+    List<String> snapshot() {
+        entries();
+        return snapshot;
+    }
+
+    /**
+     * Records the changes the monitor reported since the token: the
+     * entries of the files CHANGED, or under a folder CHANGED, are no
+     * longer vouched for, and PATHS is the new snapshot.
+     * @param newToken token of the changes
+     * @param changed paths of the files and folders that changed
+     * @param paths path of every working file now, sorted
+     */
+    void watch(String newToken, Collection<String> changed,
+               List<String> paths) {
+        current = true;
+        if (changed.isEmpty()) {
+            return;
+        }
+        for (String path : changed) {
+            for (Map.Entry<String, Entry> e : entries().subMap(path, true,
+                    path + "/\uffff", true).entrySet()) {
+                if (e.getKey().equals(path)
+                        || e.getKey().startsWith(path + "/")) {
+                    e.setValue(e.getValue().watched(false));
+                }
+            }
+        }
+        token = newToken;
+        snapshot = paths;
+        dirty = true;
+    }
+
+    /**
+     * Starts watching over, or stops watching: no entry is vouched for
+     * any longer.
+     * @param newToken token of the monitor, or null if there is none
+     * @param paths path of every working file now, sorted, or null if
+     *              there is no token
+     */
+    void unwatch(String newToken, List<String> paths) {
+        current = true;
+        if (token() == null && newToken == null) {
+            return;
+        }
+        entries.replaceAll((path, entry) -> entry.watched(false));
+        token = newToken;
+        snapshot = paths;
+        dirty = true;
+    }
+
+    /**
+     * Writes the index if this command changed it.
+     * @throws IOException
+     */
+    void flush() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        File tmp = File.createTempFile("index", ".tmp",
+                file.getParentFile());
+        try {
+            long now = java.nio.file.Files.getLastModifiedTime(tmp.toPath())
+                    .to(TimeUnit.NANOSECONDS);
+            Utils.writeContents(tmp, encode(now));
+            java.nio.file.Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                if (entry.mtime >= now) {
+                    e.setValue(new Entry(entry.mtime, SMUDGED, entry.inode,
+                            entry.code, entry.watched));
+                }
+            }
+            stamp = java.nio.file.Files.getLastModifiedTime(file.toPath())
+                    .to(TimeUnit.NANOSECONDS);
+        } finally {
+            tmp.delete();
+        }
+        fileStamp = fileStamp();
+        dirty = false;
+    }
+
+    /**
+     * Does the work of hash and store.
+     * @param path path from the working directory
+     * @param store true iff the blob must be stored
+     * @return sha1 code
+     * @throws IOException
+     */
+    private String lookup(String path, boolean store) throws IOException {
+        File working = WorkingTree.file(path);
+        Entry old;
+        boolean watching;
+        synchronized (this) {
+            old = entries().get(path);
+            watching = token != null;
+        }
+        boolean stored = old != null && (!store
+                || !ObjectStore.local().needsWrite(ObjectStore.BLOB,
+                        old.code));
+        if (stored && old.watched && watching && current) {
+            return old.code;
+        }
+        Entry stat = stat(working.toPath());
+        if (stored && old.sameStat(stat) && old.mtime < stamp) {
+            if (watching) {
+                synchronized (this) {
+                    entries.put(path, old.watched(true));
+                    dirty = true;
+                }
+            }
+            return old.code;
+        }
+        String code;
+        if (store) {
+            code = new Blob(working).code();
+        } else {
+            code = Blob.hash(working);
+        }
+        synchronized (this) {
+            entries.put(path, new Entry(stat.mtime, stat.size, stat.inode,
+                    code, watching));
+            dirty = true;
+        }
+        return code;
+    }
+
+    /**
+     * Returns the entries, reading them on first use. A missing or
+     * unreadable index has no entries.
+     * @return entries by path
+     */
+    private TreeMap<String, Entry> entries() {
+        if (entries != null) {
+            return entries;
+        }
+        entries = new TreeMap<>();
+        token = null;
+        snapshot = null;
+        current = false;
+        fileStamp = fileStamp();
+        if (!file.isFile()) {
+            return entries;
+        }
+        try {
+            stamp = java.nio.file.Files.getLastModifiedTime(file.toPath())
+                    .to(TimeUnit.NANOSECONDS);
+            Codec.Reader in = new Codec.Reader(Utils.readContents(file),
+                    Codec.INDEX);
+            if (in.version() != VERSION) {
+                return entries;
+            }
+            for (long i = in.varint(); i > 0; i -= 1) {
+                String path = in.string();
+                long mtime = in.signed();
+                long size = in.signed();
+                long inode = in.varint();
+                boolean watched = in.varint() != 0;
+                entries.put(path, new Entry(mtime, size, inode, in.code(),
+                        watched));
+            }
+            String read = in.string();
+            if (!read.isEmpty()) {
+                ArrayList<String> paths = new ArrayList<>();
+                for (long i = in.varint(); i > 0; i -= 1) {
+                    paths.add(in.string());
+                }
+                token = read;
+                snapshot = paths;
+            }
+        } catch (IOException | IllegalArgumentException
+                | GitletException excp) {
+            entries.clear();
+            token = null;
+            snapshot = null;
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the modification time and length of the index file.
+     * @return stamp, or "none" if there is no index file
+     */
+    private String fileStamp() {
+        try {
+            return java.nio.file.Files.getLastModifiedTime(file.toPath())
+                    .to(TimeUnit.NANOSECONDS) + "/" + file.length();
+        } catch (IOException excp) {
+            return "none";
+        }
+    }
+
+    /**
+     * Returns the encoding of the index, smudging the entries modified
+     * no earlier than NOW.
+     * @param now time the index is written, in nanoseconds
+     * @return bytes
+     */
+    private byte[] encode(long now) {
+        Codec.Writer out = new Codec.Writer(Codec.INDEX, VERSION);
+        out.varint(entries.size());
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            out.string(e.getKey()).signed(entry.mtime);
+            out.signed(entry.mtime >= now ? SMUDGED : entry.size);
+            out.varint(entry.inode).varint(entry.watched ? 1 : 0);
+            out.code(entry.code);
+        }
+        out.string(token == null ? "" : token);
+        if (token != null) {
+            out.varint(snapshot.size());
+            for (String path : snapshot) {
+                out.string(path);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads the stat data of a file.
+     * @param path a file
+     * @return entry without a code
+     * @throws IOException
+     */
+    private static Entry stat(Path path) throws IOException {
+        if (unixView) {
+            try {
+                Map<String, Object> attrs = java.nio.file.Files
+                        .readAttributes(path, "unix:lastModifiedTime,size,"
+                                + "ino");
+                return new Entry(((FileTime) attrs.get("lastModifiedTime"))
+                        .to(TimeUnit.NANOSECONDS), (Long) attrs.get("size"),
+                        (Long) attrs.get("ino"), null, false);
+            } catch (UnsupportedOperationException excp) {
+                unixView = false;
+            }
+        }
+        BasicFileAttributes attrs = java.nio.file.Files.readAttributes(path,
+                BasicFileAttributes.class);
+        return new Entry(attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                attrs.size(), 0, null, false);
+    }
+}
@@ -10,6 +10,20 @@ public class Main {
     /** Usage: java gitlet.Main ARGS, where ARGS contains
      *  <COMMAND> <OPERAND> .... */
     public static void main(String[] args) throws IOException {
+        try {
+            run(args);
+        } catch (Exit excp) {
+            return;
+        }
+    }
+
+    /**
+     * Runs one command. Ends by throwing Exit if the command stops
+     * early through exitWithError.
+     * @param args <COMMAND> <OPERAND> ....
+     * @throws IOException
+     */
+    static void run(String[] args) throws IOException {
         if (checkArgs(args)) {
             switch (args[0]) {
             case "add":
@@ -63,10 +77,25 @@ public class Main {
             case "push":
                 Commands.push(args);
                 break;
+            case "pack":
+                Commands.pack(args);
+                break;
+            case "gc":
+                Commands.gc(args);
+                break;
+            case "watch":
+                Monitor.watch(args);
+                break;
             default:
                 exitWithError("No command with that name exists.");
             }
-            return;
+        }
+        ObjectStore.local().flush();
+        CommitGraph.local().flush();
+        Index.local().flush();
+        if (Boolean.getBoolean("gitlet.cachestats")) {
+            System.err.printf("object cache: %d hits, %d misses%n",
+                    ObjectCache.hits(), ObjectCache.misses());
         }
     }
 
@@ -85,27 +114,41 @@ public class Main {
         if (args[0].equals("init")) {
             Commands.init(args);
             return false;
+        } else if (args[0].equals("daemon")) {
+            Daemon.serve(args);
+            return false;
         }
         initialized();
         return true;
     }
 
     /**
-     * Prints out MESSAGE and exits with error code 0.
+     * Prints out MESSAGE and ends the command with error code 0, leaving
+     * unsaved changes unsaved. Does not return.
      * @param message message to print
      */
     public static void exitWithError(String message) {
         if (message != null && !message.equals("")) {
             System.out.println(message);
         }
-        System.exit(0);
+        throw new Exit();
+    }
+
+    /** Thrown by exitWithError to end the command being run. */
+    static class Exit extends RuntimeException {
+        /** Constructor. */
+        Exit() {
+            super(null, null, false, false);
+        }
     }
 
-    /** Checks if it has been initialized. */
+    /** Checks if it has been initialized,
+     * and upgrades the repository written by an older gitlet. */
     private static void initialized() {
         if (!Files.GITLET.exists()) {
             exitWithError("Not in an initialized Gitlet directory.");
         }
+        Migration.upgrade();
     }
 
 
@@ -0,0 +1,373 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Brings a .gitlet folder written by an older version of gitlet up to
+ * the current on-disk format, in place.
+ * The version is kept in .gitlet/format; a folder without that file
+ * has version 0.
+ * @author Shelden Shi
+ */
+public class Migration {
+    /** Current on-disk format version.
+     * 1: objects and commits are stored in fan-out subfolders, and
+     *    blobs are streamed files instead of serialized Blob objects.
+     * 2: commits no longer list all of their ancestors.
+     * 3: log walks the commits, so there are no per-commit logs.
+     * 4: global-log reads a journal of commit codes instead of a text
+     *    log that every commit rewrote.
+     * 5: find reads an index of messages instead of a serialized map
+     *    that every commit rewrote.
+     * 6: commits refer to trees, kept in their own folder. */
+    static final int VERSION = 6;
+
+    /** First two bytes of a Java-serialized object. */
+    private static final int SERIAL_MAGIC = 0xACED;
+
+    /** A full commit or blob code in a log. */
+    private static final Pattern CODE = Pattern.compile("[0-9a-f]{40}");
+
+    /** The line naming the commit of a log entry. */
+    private static final Pattern ENTRY = Pattern.compile(
+            "^commit ([0-9a-f]{40})$", Pattern.MULTILINE);
+
+    /** The abbreviated parents of a merge commit in a log. */
+    private static final Pattern MERGE = Pattern.compile(
+            "Merge: ([0-9a-f]{7}) ([0-9a-f]{7})");
+
+    /**
+     * Upgrades the local repository if needed.
+     */
+    public static void upgrade() {
+        upgrade(Files.GITLET);
+    }
+
+    /**
+     * Upgrades the given repository if needed.
+     * @param gitlet a .gitlet folder, local or remote
+     */
+    public static void upgrade(File gitlet) {
+        File format = Utils.join(gitlet, "format");
+        int version = 0;
+        if (format.exists()) {
+            version = Integer.parseInt(
+                    Utils.readContentsAsString(format).trim());
+        }
+        if (version >= VERSION) {
+            return;
+        }
+        try {
+            if (version < 1) {
+                shard(Utils.join(gitlet, "objects"));
+                shard(Utils.join(gitlet, "logs", "commits"));
+                rewriteBlobs(gitlet);
+            }
+            if (version < 2) {
+                dropAncestors(Utils.join(gitlet, "logs", "commits"));
+            }
+            if (version < 3) {
+                deleteAll(Utils.join(gitlet, "logs", "commits",
+                        "commit logs"));
+            }
+            if (version < 4) {
+                journal(gitlet);
+            }
+            if (version < 5) {
+                Utils.join(gitlet, "find").delete();
+            }
+            if (version < 6) {
+                Utils.join(gitlet, "trees").mkdir();
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot upgrade %s: %s", gitlet,
+                    excp.getMessage());
+        }
+        Utils.writeContents(format, Integer.toString(VERSION));
+    }
+
+    /**
+     * Moves every object directly inside DIR into its fan-out subfolder.
+     * @param dir a flat folder of objects
+     * @throws IOException
+     */
+    private static void shard(File dir) throws IOException {
+        File[] files = dir.listFiles(File::isFile);
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().length() != Utils.UID_LENGTH) {
+                continue;
+            }
+            File dest = Files.newObjectFile(dir, file.getName());
+            java.nio.file.Files.move(file.toPath(), dest.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Rewrites serialized Blob objects as streamed blobs. Their codes
+     * change, so every commit, ref, log, find entry and staged file
+     * that names them is rewritten as well.
+     * @param gitlet a .gitlet folder
+     * @throws IOException
+     */
+    private static void rewriteBlobs(File gitlet) throws IOException {
+        File objects = Utils.join(gitlet, "objects");
+        HashMap<String, String> ids = new HashMap<>();
+        for (String code : Files.objectsWithPrefix(objects, "")) {
+            File file = Files.objectFile(objects, code);
+            byte[] contents = Utils.readContents(file);
+            if (contents.length < 2 || ((contents[0] & 0xff) << 8
+                    | contents[1] & 0xff) != SERIAL_MAGIC) {
+                continue;
+            }
+            byte[] text = legacyContents(contents);
+            String newCode = Blob.store(new ByteArrayInputStream(text),
+                    text.length, ObjectStore.of(gitlet));
+            if (!newCode.equals(code)) {
+                file.delete();
+            }
+            ids.put(code, newCode);
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        Utils.join(gitlet, "trees").mkdir();
+        rewriteCommits(gitlet, ids);
+        rewriteRefs(Utils.join(gitlet, "refs", "heads"), ids);
+        rewriteLogs(gitlet, ids);
+        File stageFile = Utils.join(gitlet, "stage");
+        if (stageFile.length() > 0) {
+            Stage stage = Codec.read(stageFile, Stage.class);
+            for (Map.Entry<String, String> e : new ArrayList<>(
+                    stage.getAddNameCodeMap().entrySet())) {
+                stage.stageAddition(e.getKey(),
+                        ids.getOrDefault(e.getValue(), e.getValue()));
+            }
+            Utils.writeContents(stageFile, stage.encode());
+        }
+    }
+
+    /**
+     * Returns the file contents held by a serialized Blob object, which
+     * has a single String field.
+     * @param serialized bytes of the Blob object
+     * @return contents encoded in UTF-8
+     * @throws IOException
+     */
+    private static byte[] legacyContents(byte[] serialized)
+            throws IOException {
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(serialized));
+        in.readInt();
+        in.readByte();
+        in.readByte();
+        in.readUTF();
+        in.readLong();
+        in.readByte();
+        int fields = in.readShort();
+        for (int i = 0; i < fields; i += 1) {
+            byte type = in.readByte();
+            in.readUTF();
+            if (type == 'L' || type == '[') {
+                if (in.readByte() == 0x74) {
+                    in.readUTF();
+                } else {
+                    in.readInt();
+                }
+            }
+        }
+        in.readByte();
+        in.readByte();
+        int tag = in.readByte();
+        if (tag == 0x74) {
+            return in.readUTF().getBytes(StandardCharsets.UTF_8);
+        } else if (tag == 0x7C) {
+            byte[] text = new byte[(int) in.readLong()];
+            in.readFully(text);
+            return text;
+        }
+        throw Utils.error("Unreadable serialized blob.");
+    }
+
+    /**
+     * Rewrites every commit of GITLET, parents before children, with a
+     * tree, adding the change of each commit's code to IDS.
+     * @param gitlet a .gitlet folder
+     * @param ids maps old codes to new codes
+     * @throws IOException
+     */
+    private static void rewriteCommits(File gitlet,
+                                       HashMap<String, String> ids)
+            throws IOException {
+        File commits = Utils.join(gitlet, "logs", "commits");
+        for (String code : Files.objectsWithPrefix(commits, "")) {
+            ArrayDeque<String> todo = new ArrayDeque<>();
+            todo.push(code);
+            while (!todo.isEmpty()) {
+                String next = todo.peek();
+                if (ids.containsKey(next)) {
+                    todo.pop();
+                    continue;
+                }
+                File file = Files.objectFile(commits, next);
+                Commit commit = Codec.read(file, Commit.class);
+                String p1 = commit.getParent1();
+                String p2 = commit.getParent2();
+                if (p1 != null && !ids.containsKey(p1)) {
+                    todo.push(p1);
+                } else if (p2 != null && !ids.containsKey(p2)) {
+                    todo.push(p2);
+                } else {
+                    String newCode = commit.remap(ids, gitlet);
+                    Codec.write(Files.newObjectFile(commits, newCode),
+                            commit);
+                    if (!newCode.equals(next)) {
+                        file.delete();
+                    }
+                    ids.put(next, newCode);
+                    todo.pop();
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrites every loose commit in COMMITS that still lists its
+     * ancestors, encoded without them. Commits stay under the file they
+     * were named by, so nothing that refers to them changes. Packed
+     * commits are left as they are; their lists are ignored when they
+     * are read.
+     * @param commits fan-out folder of commits
+     */
+    private static void dropAncestors(File commits) {
+        for (String code : Files.objectsWithPrefix(commits, "")) {
+            File file = Files.objectFile(commits, code);
+            Commit commit = Codec.read(file, Commit.class);
+            if (commit.dropAncestors()) {
+                Codec.write(file, commit);
+            }
+        }
+    }
+
+    /**
+     * Writes the journal from the commits of the shared text log, oldest
+     * first, then deletes that log.
+     * @param gitlet a .gitlet folder
+     * @throws IOException
+     */
+    private static void journal(File gitlet) throws IOException {
+        File heads = Utils.join(gitlet, "logs", "refs", "heads");
+        File shared = Utils.join(heads, "shared");
+        ArrayList<String> codes = new ArrayList<>();
+        if (shared.exists()) {
+            Matcher m = ENTRY.matcher(Utils.readContentsAsString(shared));
+            while (m.find()) {
+                codes.add(m.group(1));
+            }
+        }
+        ByteArrayOutputStream journal = new ByteArrayOutputStream();
+        for (int i = codes.size() - 1; i >= 0; i -= 1) {
+            journal.write(Pack.toBytes(codes.get(i)));
+        }
+        Utils.writeContents(Utils.join(gitlet, "logs", "journal"),
+                journal.toByteArray());
+        shared.delete();
+        Utils.join(heads, "master").delete();
+    }
+
+    /**
+     * Deletes the files in DIR, then DIR itself.
+     * @param dir a folder without subfolders
+     */
+    private static void deleteAll(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * Rewrites every branch under DIR, including remote branches.
+     * @param dir refs/heads folder
+     * @param ids maps old codes to new codes
+     */
+    private static void rewriteRefs(File dir, Map<String, String> ids) {
+        for (File file : dir.listFiles()) {
+            if (file.isDirectory()) {
+                rewriteRefs(file, ids);
+            } else {
+                String code = Utils.readContentsAsString(file);
+                Utils.writeContents(file, ids.getOrDefault(code, code));
+            }
+        }
+    }
+
+    /**
+     * Rewrites the shared log and the log of each commit, which is
+     * renamed after the commit's new code.
+     * @param gitlet a .gitlet folder
+     * @param ids maps old codes to new codes
+     */
+    private static void rewriteLogs(File gitlet, Map<String, String> ids) {
+        File shared = Utils.join(gitlet, "logs", "refs", "heads", "shared");
+        Utils.writeContents(shared,
+                remapText(Utils.readContentsAsString(shared), ids));
+        File logs = Utils.join(gitlet, "logs", "commits", "commit logs");
+        for (File file : logs.listFiles()) {
+            String text = remapText(Utils.readContentsAsString(file), ids);
+            file.delete();
+            String code = ids.getOrDefault(file.getName(), file.getName());
+            Utils.writeContents(Utils.join(logs, code), text);
+        }
+    }
+
+    /**
+     * Replaces the full and the abbreviated codes in TEXT.
+     * @param text a log or a list of codes
+     * @param ids maps old codes to new codes
+     * @return rewritten text
+     */
+    private static String remapText(String text, Map<String, String> ids) {
+        HashMap<String, String> shortIds = new HashMap<>();
+        for (Map.Entry<String, String> e : ids.entrySet()) {
+            shortIds.put(e.getKey().substring(0, 7),
+                    e.getValue().substring(0, 7));
+        }
+        Matcher codes = CODE.matcher(text);
+        StringBuilder out = new StringBuilder();
+        while (codes.find()) {
+            codes.appendReplacement(out,
+                    ids.getOrDefault(codes.group(), codes.group()));
+        }
+        codes.appendTail(out);
+        Matcher merges = MERGE.matcher(out.toString());
+        out = new StringBuilder();
+        while (merges.find()) {
+            merges.appendReplacement(out, "Merge: "
+                    + shortIds.getOrDefault(merges.group(1), merges.group(1))
+                    + " "
+                    + shortIds.getOrDefault(merges.group(2), merges.group(2)));
+        }
+        merges.appendTail(out);
+        return out.toString();
+    }
+}
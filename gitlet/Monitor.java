@@ -0,0 +1,381 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Watches the working directory, so that commands listing it read what
+ * changed instead of walking every folder and checking every file.
+ * "gitlet watch" runs until it is killed, holding a lock on the dirty
+ * file and appending a line to it for each event:
+ *     gitlet-dirty SESSION    first line, naming this run of the watcher
+ *     +PATH                   the file or folder at PATH changed
+ *     !                       events were lost
+ *     #COOKIE                 COOKIE was seen
+ * A command asking for the changes since a token leaves a cookie in the
+ * cookies folder and waits for the watcher to log it: since events come
+ * in order, every change made before the command started is then in the
+ * file. The token it gets back is the session and the length of the file
+ * up to the cookie, which is where the next command will start reading.
+ * When no watcher holds the lock, the cookie is not logged in time, or
+ * the changes since the token are not all known, commands fall back on
+ * walking the working directory.
+ * @author Shelden Shi
+ */
+class Monitor {
+    /** First word of the dirty file. */
+    private static final String HEADER = "gitlet-dirty ";
+
+    /** Length past which the watcher starts a new session, in bytes. */
+    private static final long LIMIT = 1 << 20;
+
+    /** Longest wait for a cookie to be logged, in milliseconds. */
+    private static final long TIMEOUT = 1000;
+
+    /** Changes logged between two tokens. */
+    static class Changes {
+        /** token to ask for the next changes from. */
+        private final String token;
+
+        /** paths of the files and folders that changed, or null if they
+         * are not all known. */
+        private final Set<String> paths;
+
+        /**
+         * Constructor.
+         * @param token token to ask for the next changes from
+         * @param paths paths that changed, or null if unknown
+         */
+        Changes(String token, Set<String> paths) {
+            this.token = token;
+            this.paths = paths;
+        }
+
+        /** @return token to ask for the next changes from */
+        String token() {
+            return token;
+        }
+
+        /** @return paths that changed, or null if they are unknown */
+        Set<String> paths() {
+            return paths;
+        }
+    }
+
+    /**
+     * Returns the changes logged since TOKEN.
+     * @param token token of the last changes read, or null
+     * @return changes, or null if no watcher is running
+     */
+    static Changes changes(String token) {
+        if (!Files.DIRTY.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(Files.DIRTY.toPath(),
+                StandardOpenOption.READ)) {
+            try {
+                FileLock lock = channel.tryLock(0, Long.MAX_VALUE, true);
+                if (lock != null) {
+                    lock.release();
+                    return null;
+                }
+            } catch (OverlappingFileLockException excp) {
+                return null;
+            }
+            String cookie = UUID.randomUUID().toString();
+            File file = Utils.join(Files.COOKIES, cookie);
+            if (!file.createNewFile()) {
+                return null;
+            }
+            try {
+                long deadline = System.currentTimeMillis() + TIMEOUT;
+                long pause = 1;
+                while (System.currentTimeMillis() < deadline) {
+                    Changes result = read(channel, cookie, token);
+                    if (result != null) {
+                        return result;
+                    }
+                    Thread.sleep(pause);
+                    pause = Math.min(pause * 2, 16);
+                }
+            } finally {
+                file.delete();
+            }
+        } catch (IOException excp) {
+            return null;
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /**
+     * Reads the changes logged since TOKEN up to COOKIE.
+     * @param channel the dirty file
+     * @param cookie name of the cookie left
+     * @param token token of the last changes read, or null
+     * @return changes, or null if COOKIE is not logged yet
+     * @throws IOException
+     */
+    private static Changes read(FileChannel channel, String cookie,
+                                String token) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) channel.size());
+        while (buf.hasRemaining() && channel.read(buf, buf.position()) > 0) {
+            continue;
+        }
+        String text = new String(buf.array(), 0, buf.position(),
+                StandardCharsets.US_ASCII);
+        int end = text.indexOf('\n');
+        if (!text.startsWith(HEADER) || end < 0) {
+            return null;
+        }
+        String session = text.substring(HEADER.length(), end);
+        int start = end + 1;
+        boolean known = false;
+        if (token != null && token.startsWith(session + ":")) {
+            int from = Integer.parseInt(
+                    token.substring(session.length() + 1));
+            if (from >= start && from <= text.length()) {
+                start = from;
+                known = true;
+            }
+        }
+        TreeSet<String> paths = new TreeSet<>();
+        for (int i = start; i < text.length(); ) {
+            int next = text.indexOf('\n', i);
+            if (next < 0) {
+                break;
+            }
+            String line = text.substring(i, next);
+            i = next + 1;
+            if (line.startsWith("+")) {
+                paths.add(decode(line.substring(1)));
+            } else if (line.equals("!")) {
+                known = false;
+            } else if (line.equals("#" + cookie)) {
+                return new Changes(session + ":" + i, known ? paths : null);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Watches the working directory until the process is killed.
+     * @param args Array in format: {'watch'}
+     * @throws IOException
+     */
+    static void watch(String[] args) throws IOException {
+        if (args.length != 1) {
+            throw new GitletException("Incorrect operands.");
+        }
+        Files.COOKIES.mkdir();
+        FileChannel channel = FileChannel.open(Files.DIRTY.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException excp) {
+            lock = null;
+        }
+        if (lock == null) {
+            channel.close();
+            Main.exitWithError("A gitlet watcher is already running.");
+        }
+        File dirty = Files.DIRTY;
+        Runtime.getRuntime().addShutdownHook(new Thread(dirty::delete));
+        new Monitor(channel).run();
+    }
+
+    /** the dirty file, locked. */
+    private final FileChannel channel;
+
+    /** watch service of the working directory. */
+    private final WatchService service;
+
+    /** path of the folder each key watches, empty or ending in /, or
+     * null for the cookies folder. */
+    private final HashMap<WatchKey, String> folders = new HashMap<>();
+
+    /** working directory. */
+    private final File cwd = Files.CWD;
+
+    /** cookies folder. */
+    private final File cookies = Files.COOKIES;
+
+    /**
+     * Constructor.
+     * @param channel the dirty file, locked
+     * @throws IOException
+     */
+    private Monitor(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.service = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Logs events until the process is killed.
+     * @throws IOException
+     */
+    private void run() throws IOException {
+        register(cwd.toPath(), "");
+        folders.put(cookies.toPath().register(service, ENTRY_CREATE), null);
+        session();
+        while (true) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            StringBuilder lines = new StringBuilder();
+            String prefix = folders.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    lines.append("!\n");
+                    continue;
+                }
+                String name = event.context().toString();
+                if (!folders.containsKey(key)) {
+                    continue;
+                } else if (prefix == null) {
+                    lines.append('#').append(name).append('\n');
+                    Utils.join(cookies, name).delete();
+                    continue;
+                } else if (name.startsWith(".")) {
+                    continue;
+                }
+                Path path = cwd.toPath().resolve(prefix + name);
+                if (event.kind() == ENTRY_CREATE && java.nio.file.Files
+                        .isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    register(path, prefix + name + "/");
+                }
+                lines.append('+').append(encode(prefix + name)).append('\n');
+            }
+            if (!key.reset()) {
+                folders.remove(key);
+            }
+            append(lines.toString());
+            if (channel.size() > LIMIT) {
+                session();
+            }
+        }
+    }
+
+    /**
+     * Starts a new session, so that the dirty file starts over.
+     * @throws IOException
+     */
+    private void session() throws IOException {
+        channel.truncate(0);
+        append(HEADER + UUID.randomUUID() + "\n");
+    }
+
+    /**
+     * Appends TEXT to the dirty file.
+     * @param text lines to append
+     * @throws IOException
+     */
+    private void append(String text) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(
+                text.getBytes(StandardCharsets.US_ASCII));
+        while (buf.hasRemaining()) {
+            channel.write(buf, channel.size());
+        }
+    }
+
+    /**
+     * Watches the folder DIR at PREFIX and every folder under it, but
+     * hidden ones. A folder is watched before being logged, so that no
+     * file made in it is missed by both the walk of a command reading
+     * the log and the watcher.
+     * @param dir folder
+     * @param prefix path of DIR, empty or ending in /
+     * @throws IOException
+     */
+    private void register(Path dir, String prefix) throws IOException {
+        try {
+            folders.put(dir.register(service, ENTRY_CREATE, ENTRY_DELETE,
+                    ENTRY_MODIFY), prefix);
+        } catch (IOException excp) {
+            append("!\n");
+            return;
+        }
+        try (DirectoryStream<Path> entries =
+                     java.nio.file.Files.newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (!name.startsWith(".") && java.nio.file.Files
+                        .isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                    register(entry, prefix + name + "/");
+                }
+            }
+        } catch (IOException excp) {
+            append("!\n");
+        }
+    }
+
+    /**
+     * Returns PATH with \ and line breaks escaped, so that it fits on
+     * one line of ASCII.
+     * @param path path of a working file
+     * @return escaped path
+     */
+    private static String encode(String path) {
+        StringBuilder result = new StringBuilder();
+        for (byte b : path.getBytes(StandardCharsets.UTF_8)) {
+            int c = b & 0xff;
+            if (c < 0x20 || c >= 0x7f || c == '\\') {
+                result.append(String.format("\\%02x", c));
+            } else {
+                result.append((char) c);
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Returns the path encode escaped.
+     * @param escaped escaped path
+     * @return path
+     */
+    private static String decode(String escaped) {
+        byte[] bytes = new byte[escaped.length()];
+        int n = 0;
+        for (int i = 0; i < escaped.length(); i += 1) {
+            char c = escaped.charAt(i);
+            if (c == '\\' && i + 2 < escaped.length()) {
+                bytes[n] = (byte) Integer.parseInt(
+                        escaped.substring(i + 1, i + 3), 16);
+                i += 2;
+            } else {
+                bytes[n] = (byte) c;
+            }
+            n += 1;
+        }
+        return new String(bytes, 0, n, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,130 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Objects already decoded by this command, least recently used first,
+ * so that commits, blob contents and the stage are each read and
+ * deserialized at most once per command.
+ * The cache is bounded both by its number of entries and by an
+ * estimate of the bytes they hold.
+ * An entry may carry a stamp, such as the modification time of the file
+ * it was read from, and is only returned while that stamp still holds.
+ * Cached objects are shared, so callers that change one must write it
+ * back or put it again.
+ * @author Shelden Shi
+ */
+class ObjectCache {
+    /** Most entries kept. */
+    static final int MAX_ENTRIES = 4096;
+
+    /** Most bytes kept, as estimated by the callers. */
+    static final long MAX_BYTES = 64 << 20;
+
+    /** entries by key, least recently used first. */
+    private static final LinkedHashMap<String, Entry> ENTRIES =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    /** estimated bytes held by ENTRIES. */
+    private static long bytes;
+
+    /** number of lookups that found their object. */
+    private static long hits;
+
+    /** number of lookups that did not. */
+    private static long misses;
+
+    /** A cached object. */
+    private static class Entry {
+        /** cached object. */
+        private final Object value;
+
+        /** stamp the object is valid for, or null. */
+        private final Object stamp;
+
+        /** estimated size of the object in bytes. */
+        private final long size;
+
+        /**
+         * Constructor.
+         * @param value cached object
+         * @param stamp stamp the object is valid for, or null
+         * @param size estimated size of the object in bytes
+         */
+        Entry(Object value, Object stamp, long size) {
+            this.value = value;
+            this.stamp = stamp;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Returns the object cached under KEY.
+     * @param key key of the object
+     * @param stamp stamp the object must have been put with, or null
+     * @param expectedClass class of the object
+     * @param <T> class of the object
+     * @return the object, or null if it is not cached for STAMP
+     */
+    static <T> T get(String key, Object stamp, Class<T> expectedClass) {
+        Entry e = ENTRIES.get(key);
+        if (e == null || (stamp != null && !stamp.equals(e.stamp))
+                || !expectedClass.isInstance(e.value)) {
+            misses += 1;
+            return null;
+        }
+        hits += 1;
+        return expectedClass.cast(e.value);
+    }
+
+    /**
+     * Caches VALUE under KEY, evicting the least recently used objects
+     * while the cache is over its bounds.
+     * @param key key of the object
+     * @param stamp stamp the object is valid for, or null
+     * @param value object to cache
+     * @param size estimated size of VALUE in bytes
+     */
+    static void put(String key, Object stamp, Object value, long size) {
+        remove(key);
+        if (size > MAX_BYTES) {
+            return;
+        }
+        ENTRIES.put(key, new Entry(value, stamp, size));
+        bytes += size;
+        Iterator<Entry> eldest = ENTRIES.values().iterator();
+        while ((bytes > MAX_BYTES || ENTRIES.size() > MAX_ENTRIES)
+                && eldest.hasNext()) {
+            bytes -= eldest.next().size;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Drops the object cached under KEY, if any.
+     * @param key key of the object
+     */
+    static void remove(String key) {
+        Entry e = ENTRIES.remove(key);
+        if (e != null) {
+            bytes -= e.size;
+        }
+    }
+
+    /**
+     * Returns the number of lookups that found their object.
+     * @return hits
+     */
+    static long hits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups that did not find their object.
+     * @return misses
+     */
+    static long misses() {
+        return misses;
+    }
+}
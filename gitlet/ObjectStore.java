@@ -0,0 +1,853 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The blobs, commits and trees of one repository, whether they are
+ * stored loose in objects, logs/commits and trees or in the pack files
+ * in pack.
+ * Packs are searched first, since that costs no system calls.
+ * @author Shelden Shi
+ */
+public class ObjectStore {
+    /** Type of a blob. */
+    static final byte BLOB = 1;
+
+    /** Type of a commit. */
+    static final byte COMMIT = 2;
+
+    /** Type of a tree. */
+    static final byte TREE = 3;
+
+    /** Longest chain of deltas a pack may hold. */
+    static final int MAX_DEPTH = 10;
+
+    /** Largest blob that may be stored as a delta or used as a base. */
+    static final long DELTA_LIMIT = 16 << 20;
+
+    /** Most bytes of rebuilt delta objects kept in memory. */
+    static final long RESOLVED_LIMIT = 32 << 20;
+
+    /** Store of the local repository. */
+    private static ObjectStore local;
+
+    /** folder of loose blobs. */
+    private final File objects;
+
+    /** folder of loose commits. */
+    private final File commits;
+
+    /** folder of loose trees. */
+    private final File trees;
+
+    /** folder of packs. */
+    private final File packDir;
+
+    /** file holding the existence filter. */
+    private final File filterFile;
+
+    /** filter of the codes of stored objects, loaded when first needed. */
+    private BloomFilter filter;
+
+    /** true iff codes were added to filter since it was loaded. */
+    private boolean filterChanged;
+
+    /** index of the commit codes, loaded when first needed. */
+    private CommitIds ids;
+
+    /** mapped packs, loaded when first needed. */
+    private List<Pack> packs;
+
+    /** contents of rebuilt delta objects, least recently used first. */
+    private final LinkedHashMap<String, byte[]> resolved =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    /** total length of the values of resolved. */
+    private long resolvedBytes;
+
+    /**
+     * Constructor.
+     * @param gitlet a .gitlet folder
+     */
+    private ObjectStore(File gitlet) {
+        objects = Utils.join(gitlet, "objects");
+        commits = Utils.join(gitlet, "logs", "commits");
+        trees = Utils.join(gitlet, "trees");
+        packDir = Utils.join(gitlet, "pack");
+        filterFile = Utils.join(gitlet, "bloom");
+    }
+
+    /**
+     * Returns the store of the local repository.
+     * @return object store
+     */
+    public static synchronized ObjectStore local() {
+        if (local == null) {
+            local = new ObjectStore(Files.GITLET);
+        }
+        return local;
+    }
+
+    /** Forgets the store of the local repository, whose packs and
+     * filter the next command the daemon runs has to read again. */
+    static synchronized void reset() {
+        local = null;
+    }
+
+    /**
+     * Returns the store of the given repository.
+     * @param gitlet a .gitlet folder, such as a remote's
+     * @return object store
+     */
+    public static ObjectStore of(File gitlet) {
+        return new ObjectStore(gitlet);
+    }
+
+    /**
+     * Returns the folder of loose objects of the given type.
+     * @param type BLOB, COMMIT or TREE
+     * @return folder
+     */
+    File dir(byte type) {
+        if (type == COMMIT) {
+            return commits;
+        }
+        return type == TREE ? trees : objects;
+    }
+
+    /**
+     * Opens the uncompressed contents of an object.
+     * @param type BLOB, COMMIT or TREE
+     * @param code sha1 code of the object
+     * @return stream of the contents
+     * @throws IOException if there is no such object
+     */
+    public InputStream open(byte type, String code) throws IOException {
+        for (Pack pack : packs()) {
+            int i = pack.find(code);
+            if (i != -1 && pack.isDelta(i)) {
+                return new ByteArrayInputStream(resolve(pack, i, code));
+            } else if (i != -1) {
+                return Compression.inflate(pack.openRaw(i));
+            }
+        }
+        return Compression.inflate(new FileInputStream(
+                Files.objectFile(dir(type), code)));
+    }
+
+    /**
+     * Reads the object of the given type and class. Objects are cached,
+     * so each one is only deserialized once.
+     * @param type BLOB, COMMIT or TREE
+     * @param code sha1 code of the object
+     * @param expectedClass class of the object
+     * @param <T> class of the object
+     * @return the object
+     */
+    public <T> T readObject(
+            byte type, String code, Class<T> expectedClass) {
+        String key = type + code;
+        T result = ObjectCache.get(key, null, expectedClass);
+        if (result != null) {
+            return result;
+        }
+        try {
+            byte[] contents = readAll(open(type, code));
+            result = Codec.decode(contents, expectedClass);
+            ObjectCache.put(key, null, result, contents.length);
+            return result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Opens the stored bytes of an object, as they would be stored loose.
+     * @param type BLOB, COMMIT or TREE
+     * @param code sha1 code of the object
+     * @return stream of the stored bytes
+     * @throws IOException if there is no such object
+     */
+    InputStream openRaw(byte type, String code) throws IOException {
+        for (Pack pack : packs()) {
+            int i = pack.find(code);
+            if (i != -1 && pack.isDelta(i)) {
+                return new ByteArrayInputStream(
+                        Compression.compress(resolve(pack, i, code)));
+            } else if (i != -1) {
+                return pack.openRaw(i);
+            }
+        }
+        return new FileInputStream(Files.objectFile(dir(type), code));
+    }
+
+    /**
+     * Checks if this store holds an object.
+     * @param type BLOB, COMMIT or TREE
+     * @param code sha1 code of the object
+     * @return true iff the object is stored
+     */
+    public boolean contains(byte type, String code) {
+        for (Pack pack : packs()) {
+            if (pack.find(code) != -1) {
+                return true;
+            }
+        }
+        return Files.objectFile(dir(type), code).isFile();
+    }
+
+    /**
+     * Checks if an object has to be written, looking it up on disk only
+     * if the existence filter may hold its code.
+     * @param type BLOB, COMMIT or TREE
+     * @param code sha1 code of the object
+     * @return true iff the object is not stored yet
+     */
+    boolean needsWrite(byte type, String code) {
+        return !filter().mightContain(code) || !contains(type, code);
+    }
+
+    /**
+     * Records that an object was written to this store.
+     * @param code sha1 code of the object
+     */
+    synchronized void added(String code) {
+        filter().add(code);
+        filterChanged = true;
+    }
+
+    /**
+     * Saves the existence filter if objects were written, rebuilding it
+     * first if it holds more codes than it was sized for.
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        if (ids != null) {
+            ids.flush();
+        }
+        if (!filterChanged) {
+            return;
+        }
+        if (filter.isFull()) {
+            filter = buildFilter();
+        }
+        filter.write(filterFile);
+        filterChanged = false;
+    }
+
+    /**
+     * Returns the index of the codes of the commits of this store.
+     * @return commit ids
+     */
+    CommitIds ids() {
+        if (ids == null) {
+            ids = new CommitIds(objects.getParentFile(), this);
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the codes of the stored commits starting with PREFIX,
+     * looked up in the index of commit codes.
+     * @param prefix abbreviated code
+     * @return sorted codes
+     */
+    public List<String> commitsWithPrefix(String prefix) {
+        ArrayList<String> result = new ArrayList<>();
+        try {
+            for (String code : ids().withPrefix(prefix)) {
+                if (contains(COMMIT, code)) {
+                    result.add(code);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the existence filter, reading it or building it from the
+     * stored objects the first time.
+     * @return filter
+     */
+    private synchronized BloomFilter filter() {
+        if (filter == null) {
+            filter = BloomFilter.read(filterFile);
+            if (filter == null) {
+                filter = buildFilter();
+                filterChanged = true;
+            }
+        }
+        return filter;
+    }
+
+    /**
+     * Builds an existence filter holding every stored object.
+     * @return filter
+     */
+    private BloomFilter buildFilter() {
+        ArrayList<String> codes = new ArrayList<>();
+        for (byte type : new byte[] {BLOB, COMMIT, TREE}) {
+            codes.addAll(Files.objectsWithPrefix(dir(type), ""));
+        }
+        for (Pack pack : packs()) {
+            for (int i = 0; i < pack.size(); i += 1) {
+                codes.add(pack.code(i));
+            }
+        }
+        BloomFilter result = new BloomFilter(codes.size());
+        for (String code : codes) {
+            if (code.length() == Utils.UID_LENGTH) {
+                result.add(code);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the codes of all objects of a type starting with PREFIX.
+     * @param type BLOB, COMMIT or TREE
+     * @param prefix abbreviated code
+     * @return sorted codes
+     */
+    public List<String> withPrefix(byte type, String prefix) {
+        TreeMap<String, Boolean> codes = new TreeMap<>();
+        for (String code : Files.objectsWithPrefix(dir(type), prefix)) {
+            codes.put(code, true);
+        }
+        for (Pack pack : packs()) {
+            for (String code : pack.withPrefix(type, prefix)) {
+                codes.put(code, true);
+            }
+        }
+        return new ArrayList<>(codes.keySet());
+    }
+
+    /**
+     * Copies an object from another store into this one as a loose
+     * object, without uncompressing it.
+     * @param from store holding the object
+     * @param type BLOB, COMMIT or TREE
+     * @param code sha1 code of the object
+     * @throws IOException
+     */
+    public void copy(ObjectStore from, byte type, String code)
+            throws IOException {
+        File dest = Files.newObjectFile(dir(type), code);
+        try (InputStream in = from.openRaw(type, code);
+             OutputStream out = new FileOutputStream(dest)) {
+            in.transferTo(out);
+        }
+        added(code);
+        if (type == COMMIT) {
+            ids().add(code);
+        }
+    }
+
+    /**
+     * Rebuilds the I-th object of PACK, which is a delta, from its base.
+     * Rebuilt objects are cached, so walking the same chain again is
+     * cheap.
+     * @param pack pack holding the object
+     * @param i position of the object in the pack's index
+     * @param code sha1 code of the object
+     * @return uncompressed contents of the object
+     * @throws IOException
+     */
+    private synchronized byte[] resolve(Pack pack, int i, String code)
+            throws IOException {
+        byte[] result = resolved.get(code);
+        if (result != null) {
+            return result;
+        }
+        ByteBuffer raw = pack.raw(i);
+        byte[] baseCode = new byte[Pack.CODE_BYTES];
+        raw.get(baseCode);
+        byte[] stored = new byte[raw.remaining()];
+        raw.get(stored);
+        byte[] base = readAll(open(pack.type(i), toHex(baseCode)));
+        byte[] delta = readAll(Compression.inflate(
+                new ByteArrayInputStream(stored)));
+        result = Delta.apply(base, delta);
+        resolved.put(code, result);
+        resolvedBytes += result.length;
+        Iterator<byte[]> eldest = resolved.values().iterator();
+        while (resolvedBytes > RESOLVED_LIMIT && eldest.hasNext()) {
+            resolvedBytes -= eldest.next().length;
+            eldest.remove();
+        }
+        return result;
+    }
+
+    /**
+     * Consolidates every loose object and every existing pack into a
+     * single new pack, then deletes what it replaced.
+     * Loose objects that would grow the pack past Pack.MAX_SIZE stay
+     * loose. Deltas already packed are copied as they are, unless their
+     * chain is longer than MAX_DEPTH. Other blobs are stored as deltas
+     * against the versions chosen by deltaBases when that makes them
+     * smaller, each one built only as it is written.
+     * @throws IOException
+     */
+    public void pack() throws IOException {
+        TreeMap<String, Pack.Entry> entries = new TreeMap<>();
+        HashMap<String, String> packedBases = new HashMap<>();
+        for (Pack pack : packs()) {
+            for (int i = 0; i < pack.size(); i += 1) {
+                String code = pack.code(i);
+                entries.put(code, packedEntry(pack, i));
+                if (pack.isDelta(i)) {
+                    byte[] base = new byte[Pack.CODE_BYTES];
+                    pack.raw(i).get(base);
+                    packedBases.put(code, toHex(base));
+                } else {
+                    packedBases.remove(code);
+                }
+            }
+        }
+        long size = 0;
+        for (Pack.Entry e : entries.values()) {
+            size += e.length() + Pack.CODE_BYTES;
+        }
+        HashSet<File> loose = new HashSet<>();
+        for (byte type : new byte[] {BLOB, COMMIT, TREE}) {
+            for (String code : Files.objectsWithPrefix(dir(type), "")) {
+                File file = Files.objectFile(dir(type), code);
+                Pack.Entry e = looseEntry(type, code, file);
+                if (!entries.containsKey(code) && size + e.length()
+                        + Pack.CODE_BYTES < Pack.MAX_SIZE) {
+                    size += e.length() + Pack.CODE_BYTES;
+                    entries.put(code, e);
+                }
+                loose.add(file);
+            }
+        }
+        if (entries.isEmpty()) {
+            return;
+        }
+        HashMap<String, String> kept = new HashMap<>();
+        for (Map.Entry<String, String> e : packedBases.entrySet()) {
+            if (entries.containsKey(e.getValue())
+                    && depth(e.getKey(), packedBases) <= MAX_DEPTH) {
+                kept.put(e.getKey(), e.getValue());
+            }
+        }
+        HashMap<String, String> bases = deltaBases(entries, kept);
+        for (Map.Entry<String, Pack.Entry> e : entries.entrySet()) {
+            String code = e.getKey();
+            boolean packed = packedBases.containsKey(code);
+            if (kept.containsKey(code)
+                    || !packed && !bases.containsKey(code)) {
+                continue;
+            }
+            e.setValue(new Rebased(code, bases.get(code),
+                    packed ? null : e.getValue()));
+        }
+        ArrayList<Pack.Entry> packed = new ArrayList<>(entries.values());
+        List<Pack> old = packs();
+        File indexFile = Pack.write(packDir, packed);
+        for (Pack pack : old) {
+            if (!pack.indexFile().equals(indexFile)) {
+                pack.delete();
+            }
+        }
+        for (Pack.Entry e : packed) {
+            File file = Files.objectFile(dir((byte) (e.type() & ~Pack.DELTA)),
+                    e.code());
+            if (loose.contains(file)) {
+                file.delete();
+                file.getParentFile().delete();
+            }
+        }
+        packs = null;
+        resolved.clear();
+        resolvedBytes = 0;
+    }
+
+    /**
+     * A blob written to a new pack as a delta against a new base, or
+     * whole. Which one is chosen when the pack writer first asks, so that
+     * only one such blob is held in memory at a time.
+     */
+    private class Rebased implements Pack.Entry {
+        /** sha1 code of the blob. */
+        private final String code;
+
+        /** sha1 code of its new base, or null if it has none. */
+        private final String base;
+
+        /** entry holding the blob whole, or null if it must be built. */
+        private Pack.Entry whole;
+
+        /** entry chosen, or null until it is or once it is written. */
+        private Pack.Entry chosen;
+
+        /** type of the entry chosen, or 0 until it is. */
+        private byte type;
+
+        /**
+         * Constructor.
+         * @param code sha1 code of the blob
+         * @param base sha1 code of its new base, or null
+         * @param whole entry holding the blob whole, or null
+         */
+        Rebased(String code, String base, Pack.Entry whole) {
+            this.code = code;
+            this.base = base;
+            this.whole = whole;
+        }
+
+        @Override
+        public String code() {
+            return code;
+        }
+
+        @Override
+        public byte type() {
+            if (type == 0) {
+                type = chosen().type();
+            }
+            return type;
+        }
+
+        @Override
+        public long length() {
+            return chosen().length();
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            InputStream result = chosen().open();
+            chosen = null;
+            whole = null;
+            return result;
+        }
+
+        /**
+         * Returns the smaller of the delta against BASE and the whole
+         * blob, building them the first time.
+         * @return entry to write
+         */
+        private Pack.Entry chosen() {
+            if (chosen != null) {
+                return chosen;
+            }
+            try {
+                if (whole == null) {
+                    whole = bytesEntry(code, BLOB,
+                            readAll(openRaw(BLOB, code)));
+                }
+                chosen = whole;
+                if (base != null) {
+                    byte[] delta = Compression.compress(Delta.create(
+                            readAll(ObjectStore.this.open(BLOB, base)),
+                            readAll(ObjectStore.this.open(BLOB, code))));
+                    if (Pack.CODE_BYTES + delta.length < whole.length()) {
+                        byte[] stored =
+                                new byte[Pack.CODE_BYTES + delta.length];
+                        System.arraycopy(Pack.toBytes(base), 0, stored, 0,
+                                Pack.CODE_BYTES);
+                        System.arraycopy(delta, 0, stored,
+                                Pack.CODE_BYTES, delta.length);
+                        chosen = bytesEntry(code,
+                                (byte) (BLOB | Pack.DELTA), stored);
+                    }
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            return chosen;
+        }
+    }
+
+    /**
+     * Chooses the base of each blob of ENTRIES that will be stored as a
+     * delta, starting from the deltas KEPT as they are. The versions of
+     * each file name found in any commit are sorted by size, and each
+     * one is based on the next smaller one, unless it already has a base
+     * or that would make a chain longer than MAX_DEPTH. A blob kept
+     * under several names may get its base after other blobs were based
+     * on it, so the chains through a new base are measured as they stand
+     * then, from the root of the base to the deepest blob built on CODE.
+     * @param entries objects being packed, by code
+     * @param kept map from the code of a packed delta that is kept to the
+     *             code of its base
+     * @return map from the code of a blob to the code of its base, KEPT
+     *         included
+     */
+    private HashMap<String, String> deltaBases(
+            TreeMap<String, Pack.Entry> entries,
+            HashMap<String, String> kept) {
+        TreeMap<String, HashSet<String>> versions = new TreeMap<>();
+        for (Pack.Entry e : entries.values()) {
+            if (e.type() != COMMIT) {
+                continue;
+            }
+            Commit commit = readObject(COMMIT, e.code(), Commit.class);
+            for (Map.Entry<String, String> file
+                    : commit.getNameBlobMap(this).entrySet()) {
+                versions.computeIfAbsent(file.getKey(),
+                        k -> new HashSet<>()).add(file.getValue());
+            }
+        }
+        HashMap<String, Long> sizes = new HashMap<>();
+        HashMap<String, String> bases = new HashMap<>();
+        HashMap<String, Integer> heights = new HashMap<>();
+        for (Map.Entry<String, String> e : kept.entrySet()) {
+            link(e.getKey(), e.getValue(), bases, heights);
+        }
+        for (HashSet<String> codes : versions.values()) {
+            ArrayList<String> sorted = new ArrayList<>();
+            for (String code : codes) {
+                if (!entries.containsKey(code)) {
+                    continue;
+                }
+                long size = sizes.computeIfAbsent(code, this::blobSize);
+                if (size <= DELTA_LIMIT) {
+                    sorted.add(code);
+                }
+            }
+            sorted.sort(Comparator.comparing((String c) -> sizes.get(c))
+                    .thenComparing(c -> c));
+            for (int k = 1; k < sorted.size(); k += 1) {
+                String code = sorted.get(k);
+                String base = sorted.get(k - 1);
+                if (bases.containsKey(code) || dependsOn(base, code, bases)
+                        || depth(base, bases) + 1
+                        + heights.getOrDefault(code, 0) > MAX_DEPTH) {
+                    continue;
+                }
+                link(code, base, bases, heights);
+            }
+        }
+        return bases;
+    }
+
+    /**
+     * Bases CODE on BASE, raising the heights of BASE and the blobs it
+     * is built from to the length of the chains now built on them.
+     * @param code code of a blob
+     * @param base code of its base
+     * @param bases map from the code of a blob to the code of its base
+     * @param heights length of the longest chain built on each blob
+     */
+    private static void link(String code, String base,
+                             HashMap<String, String> bases,
+                             HashMap<String, Integer> heights) {
+        bases.put(code, base);
+        int height = heights.getOrDefault(code, 0) + 1;
+        for (String b = base; b != null
+                && heights.getOrDefault(b, 0) < height; b = bases.get(b)) {
+            heights.put(b, height);
+            height += 1;
+        }
+    }
+
+    /**
+     * Returns the number of deltas between CODE and the root of its
+     * chain.
+     * @param code code of a blob
+     * @param bases map from the code of a blob to the code of its base
+     * @return depth of CODE, 0 if it is stored whole
+     */
+    private static int depth(String code, HashMap<String, String> bases) {
+        int depth = 0;
+        for (String b = bases.get(code); b != null; b = bases.get(b)) {
+            depth += 1;
+        }
+        return depth;
+    }
+
+    /**
+     * Checks if CODE is BASE or one of the bases BASE is built from.
+     * @param base code of a blob
+     * @param code code of another blob
+     * @param bases map from the code of a blob to the code of its base
+     * @return true iff basing CODE on BASE would make a cycle
+     */
+    private static boolean dependsOn(String base, String code,
+                                     HashMap<String, String> bases) {
+        for (String b = base; b != null; b = bases.get(b)) {
+            if (b.equals(code)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the size of the contents of a blob, read from its header.
+     * @param code sha1 code of the blob
+     * @return number of content bytes
+     */
+    private long blobSize(String code) {
+        try (InputStream in = open(BLOB, code)) {
+            StringBuilder header = new StringBuilder();
+            for (int c = in.read(); c > 0; c = in.read()) {
+                header.append((char) c);
+            }
+            return Long.parseLong(header.substring(header.indexOf(" ") + 1));
+        } catch (IOException | NumberFormatException excp) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Returns a pack entry holding the given stored bytes.
+     * @param code sha1 code of the object
+     * @param type type of the object, including the DELTA flag
+     * @param stored stored bytes of the object
+     * @return pack entry
+     */
+    private static Pack.Entry bytesEntry(String code, byte type,
+                                         byte[] stored) {
+        return new Pack.Entry() {
+            @Override
+            public String code() {
+                return code;
+            }
+
+            @Override
+            public byte type() {
+                return type;
+            }
+
+            @Override
+            public long length() {
+                return stored.length;
+            }
+
+            @Override
+            public InputStream open() {
+                return new ByteArrayInputStream(stored);
+            }
+        };
+    }
+
+    /**
+     * Reads and closes IN.
+     * @param in a stream
+     * @return all its bytes
+     * @throws IOException
+     */
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (in) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * Converts a raw code to hex.
+     * @param code raw sha1 code
+     * @return sha1 code
+     */
+    static String toHex(byte[] code) {
+        StringBuilder result = new StringBuilder(Utils.UID_LENGTH);
+        for (byte b : code) {
+            result.append(String.format("%02x", b));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Returns a pack entry for a loose object.
+     * @param type BLOB, COMMIT or TREE
+     * @param code sha1 code of the object
+     * @param file loose file
+     * @return pack entry
+     */
+    private static Pack.Entry looseEntry(byte type, String code, File file) {
+        return new Pack.Entry() {
+            @Override
+            public String code() {
+                return code;
+            }
+
+            @Override
+            public byte type() {
+                return type;
+            }
+
+            @Override
+            public long length() {
+                return file.length();
+            }
+
+            @Override
+            public InputStream open() throws IOException {
+                return new FileInputStream(file);
+            }
+        };
+    }
+
+    /**
+     * Returns a pack entry for the I-th object of PACK.
+     * @param pack an existing pack
+     * @param i position in its index
+     * @return pack entry
+     */
+    private static Pack.Entry packedEntry(Pack pack, int i) {
+        return new Pack.Entry() {
+            @Override
+            public String code() {
+                return pack.code(i);
+            }
+
+            @Override
+            public byte type() {
+                if (pack.isDelta(i)) {
+                    return (byte) (pack.type(i) | Pack.DELTA);
+                }
+                return pack.type(i);
+            }
+
+            @Override
+            public long length() {
+                return pack.raw(i).remaining();
+            }
+
+            @Override
+            public InputStream open() {
+                return pack.openRaw(i);
+            }
+        };
+    }
+
+    /**
+     * Returns the packs of this store, mapping them the first time.
+     * @return packs
+     */
+    private synchronized List<Pack> packs() {
+        if (packs == null) {
+            packs = new ArrayList<>();
+            for (File indexFile : Pack.indexFiles(packDir)) {
+                try {
+                    packs.add(new Pack(indexFile));
+                } catch (FileNotFoundException excp) {
+                    continue;
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        }
+        return packs;
+    }
+}
@@ -0,0 +1,454 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pack file holding many objects, and the index used to find them.
+ * Both files are memory-mapped, so looking up and reading a packed
+ * object costs no system calls.
+ *
+ * The pack file is "GPAK", a version and an entry count, followed by
+ * the entries. Each entry is a type byte, a length and the bytes of the
+ * object as they would be stored loose, or a delta against another
+ * object of the pack (see isDelta).
+ * The index file is "GIDX" and a version, followed by a fan-out table
+ * of 256 cumulative counts by first code byte, the sorted 20-byte codes
+ * of the objects and the offset of each one's entry in the pack file.
+ * @author Shelden Shi
+ */
+class Pack {
+    /** Magic number of a pack file. */
+    private static final byte[] PACK_MAGIC =
+            "GPAK".getBytes(StandardCharsets.US_ASCII);
+
+    /** Magic number of an index file. */
+    private static final byte[] INDEX_MAGIC =
+            "GIDX".getBytes(StandardCharsets.US_ASCII);
+
+    /** Format version of both files. */
+    private static final int VERSION = 1;
+
+    /** Length of a raw sha1 code. */
+    static final int CODE_BYTES = Utils.UID_LENGTH / 2;
+
+    /** Position of the fan-out table in an index file. */
+    private static final int FANOUT = 8;
+
+    /** Position of the first code in an index file. */
+    private static final int CODES = FANOUT + 256 * 4;
+
+    /** Length of the header of a pack entry. */
+    private static final int ENTRY_HEADER = 5;
+
+    /** Flag in the type byte of an entry holding a delta. */
+    static final int DELTA = 0x80;
+
+    /** Largest pack file that can be mapped. */
+    static final long MAX_SIZE = Integer.MAX_VALUE;
+
+    /** pack file. */
+    private final File packFile;
+
+    /** index file. */
+    private final File indexFile;
+
+    /** mapped index file. */
+    private final MappedByteBuffer index;
+
+    /** mapped pack file. */
+    private final MappedByteBuffer data;
+
+    /** number of objects in this pack. */
+    private final int count;
+
+    /**
+     * Maps the given index file and its pack file.
+     * @param indexFile a pack-*.idx file
+     * @throws IOException
+     */
+    Pack(File indexFile) throws IOException {
+        this.indexFile = indexFile;
+        String name = indexFile.getName();
+        packFile = Utils.join(indexFile.getParentFile(),
+                name.substring(0, name.length() - ".idx".length())
+                        + ".pack");
+        index = map(indexFile);
+        data = map(packFile);
+        count = index.getInt(FANOUT + 255 * 4);
+    }
+
+    /**
+     * Maps FILE read-only.
+     * @param file a pack or index file
+     * @return mapped contents
+     * @throws IOException
+     */
+    private static MappedByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, channel.size());
+        }
+    }
+
+    /**
+     * Returns the index files in the given pack folder.
+     * @param packDir a pack folder, which need not exist
+     * @return index files, sorted by name
+     */
+    static List<File> indexFiles(File packDir) {
+        ArrayList<File> result = new ArrayList<>();
+        List<String> names = Utils.plainFilenamesIn(packDir);
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith("pack-") && name.endsWith(".idx")) {
+                    result.add(Utils.join(packDir, name));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of objects in this pack.
+     * @return object count
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Returns the code of the I-th object, in code order.
+     * @param i position in the index
+     * @return sha1 code
+     */
+    String code(int i) {
+        StringBuilder result = new StringBuilder(Utils.UID_LENGTH);
+        int base = CODES + i * CODE_BYTES;
+        for (int j = 0; j < CODE_BYTES; j += 1) {
+            result.append(String.format("%02x", index.get(base + j)));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Returns the position in the index of the object with the given
+     * code, or -1 if this pack does not hold it.
+     * @param code sha1 code
+     * @return position in the index
+     */
+    int find(String code) {
+        if (code.length() != Utils.UID_LENGTH) {
+            return -1;
+        }
+        byte[] key = toBytes(code);
+        int i = lowerBound(key);
+        if (i < count && compare(i, key) == 0) {
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the codes of the objects of the given type starting with
+     * PREFIX, in code order.
+     * @param type object type
+     * @param prefix abbreviated code, in lowercase hex, or empty
+     * @return codes, empty if PREFIX is not such a code
+     */
+    List<String> withPrefix(byte type, String prefix) {
+        ArrayList<String> result = new ArrayList<>();
+        if (!prefix.matches("[0-9a-f]{0," + Utils.UID_LENGTH + "}")) {
+            return result;
+        }
+        StringBuilder low = new StringBuilder(prefix);
+        while (low.length() < Utils.UID_LENGTH) {
+            low.append('0');
+        }
+        for (int i = lowerBound(toBytes(low.toString())); i < count; i += 1) {
+            String code = code(i);
+            if (!code.startsWith(prefix)) {
+                break;
+            }
+            if (type(i) == type) {
+                result.add(code);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the type of the I-th object.
+     * @param i position in the index
+     * @return object type
+     */
+    byte type(int i) {
+        return (byte) (data.get(offset(i)) & ~DELTA);
+    }
+
+    /**
+     * Checks if the I-th object is stored as a delta. The stored bytes
+     * of such an object are the raw code of its base, which is in the
+     * same pack, followed by the compressed delta.
+     * @param i position in the index
+     * @return true iff the object is a delta
+     */
+    boolean isDelta(int i) {
+        return (data.get(offset(i)) & DELTA) != 0;
+    }
+
+    /**
+     * Returns the stored bytes of the I-th object, which are the bytes
+     * of the object as it would be stored loose unless it is a delta.
+     * @param i position in the index
+     * @return stream of the stored bytes
+     */
+    InputStream openRaw(int i) {
+        return new BufferInput(raw(i));
+    }
+
+    /**
+     * Returns a view of the stored bytes of the I-th object.
+     * @param i position in the index
+     * @return stored bytes
+     */
+    ByteBuffer raw(int i) {
+        int offset = offset(i);
+        int length = data.getInt(offset + 1);
+        ByteBuffer result = data.duplicate();
+        result.position(offset + ENTRY_HEADER);
+        result.limit(offset + ENTRY_HEADER + length);
+        return result.slice();
+    }
+
+    /**
+     * Returns the index file of this pack.
+     * @return index file
+     */
+    File indexFile() {
+        return indexFile;
+    }
+
+    /**
+     * Deletes this pack and its index.
+     */
+    void delete() {
+        indexFile.delete();
+        packFile.delete();
+    }
+
+    /**
+     * Returns the offset of the I-th object's entry.
+     * @param i position in the index
+     * @return offset in the pack file
+     */
+    private int offset(int i) {
+        return (int) index.getLong(CODES + count * CODE_BYTES + i * 8);
+    }
+
+    /**
+     * Returns the position of the first code not less than KEY.
+     * @param key raw sha1 code
+     * @return position in the index
+     */
+    private int lowerBound(byte[] key) {
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : index.getInt(FANOUT + (first - 1) * 4);
+        int hi = index.getInt(FANOUT + first * 4);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Compares the I-th code with KEY.
+     * @param i position in the index
+     * @param key raw sha1 code
+     * @return negative, zero or positive as the code is less than,
+     *         equal to or greater than KEY
+     */
+    private int compare(int i, byte[] key) {
+        int base = CODES + i * CODE_BYTES;
+        for (int j = 0; j < CODE_BYTES; j += 1) {
+            int diff = (index.get(base + j) & 0xff) - (key[j] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Converts a hex code to raw bytes.
+     * @param code sha1 code
+     * @return raw bytes
+     */
+    static byte[] toBytes(String code) {
+        byte[] result = new byte[CODE_BYTES];
+        for (int i = 0; i < CODE_BYTES; i += 1) {
+            result[i] = (byte) Integer.parseInt(
+                    code.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+    /** One object to be written to a new pack. */
+    interface Entry {
+        /**
+         * Returns the sha1 code of the object.
+         * @return code
+         */
+        String code();
+
+        /**
+         * Returns the type of the object, with the DELTA flag set if
+         * the object is stored as a delta.
+         * @return type
+         */
+        byte type();
+
+        /**
+         * Returns the number of stored bytes.
+         * @return length
+         */
+        long length();
+
+        /**
+         * Opens the stored bytes of the object.
+         * @return stream of the bytes
+         * @throws IOException
+         */
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * Writes a pack and its index holding ENTRIES, which must be sorted
+     * by code, into PACKDIR.
+     * The index is renamed into place last, so readers never find an
+     * index without its pack.
+     * @param packDir pack folder
+     * @param entries objects to pack
+     * @return the new pack's index file
+     * @throws IOException
+     */
+    static File write(File packDir, List<Entry> entries) throws IOException {
+        packDir.mkdir();
+        ArrayList<Object> codes = new ArrayList<>();
+        for (Entry e : entries) {
+            codes.add(e.code());
+        }
+        String name = "pack-" + Utils.sha1(codes);
+        File packTmp = File.createTempFile("pack", null, packDir);
+        File indexTmp = File.createTempFile("idx", null, packDir);
+        long[] offsets = new long[entries.size()];
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(packTmp),
+                            Blob.BUFFER_SIZE))) {
+                out.write(PACK_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(entries.size());
+                for (int i = 0; i < entries.size(); i += 1) {
+                    Entry e = entries.get(i);
+                    offsets[i] = out.size();
+                    out.writeByte(e.type());
+                    out.writeInt((int) e.length());
+                    try (InputStream in = e.open()) {
+                        in.transferTo(out);
+                    }
+                }
+            }
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(indexTmp),
+                            Blob.BUFFER_SIZE))) {
+                out.write(INDEX_MAGIC);
+                out.writeInt(VERSION);
+                int[] fanout = new int[256];
+                for (Entry e : entries) {
+                    fanout[Integer.parseInt(e.code().substring(0, 2), 16)]
+                            += 1;
+                }
+                int total = 0;
+                for (int b = 0; b < 256; b += 1) {
+                    total += fanout[b];
+                    out.writeInt(total);
+                }
+                for (Entry e : entries) {
+                    out.write(toBytes(e.code()));
+                }
+                for (long offset : offsets) {
+                    out.writeLong(offset);
+                }
+            }
+            File indexFile = Utils.join(packDir, name + ".idx");
+            java.nio.file.Files.move(packTmp.toPath(),
+                    Utils.join(packDir, name + ".pack").toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            java.nio.file.Files.move(indexTmp.toPath(), indexFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            return indexFile;
+        } finally {
+            packTmp.delete();
+            indexTmp.delete();
+        }
+    }
+
+    /** An InputStream reading the remaining bytes of a ByteBuffer. */
+    private static class BufferInput extends InputStream {
+        /** bytes left to read. */
+        private final ByteBuffer buf;
+
+        /**
+         * Constructor.
+         * @param buf bytes to read
+         */
+        BufferInput(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            if (!buf.hasRemaining()) {
+                return -1;
+            }
+            return buf.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buf.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buf.remaining();
+        }
+    }
+}
@@ -3,61 +3,111 @@ package gitlet;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamField;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * A stage that gitlet works on.
  * Keeps track of files added, removed.
  * Stage is cleared after a commit.
  * a gitlet works on one stage.
+ * Files are kept in hashed tables in the order they were staged, and
+ * the stage file holds a snapshot of them followed by a journal of the
+ * changes made since. A command that changes a few files only appends
+ * their records; once the journal outgrows the snapshot, or the stage is
+ * emptied, the whole file is rewritten, so staging many files costs time
+ * linear in their number.
  * @author Shelden Shi
  */
-public class Stage implements Serializable {
+public class Stage implements Serializable, Codec.Encodable {
+    /** Serialization version of stages written by older gitlets. */
+    private static final long serialVersionUID = -2628561788140087173L;
 
-    /** addition Stage. */
-    private ArrayList<String> additionStage;
+    /** Fields of stages written by older gitlets. */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("additionStage", ArrayList.class),
+        new ObjectStreamField("removalStage", ArrayList.class),
+        new ObjectStreamField("addNameCodeMap", HashMap.class),
+    };
 
-    /** removal Stage. */
-    private ArrayList<String> removalStage;
+    /** Version of the encoding of stages. Version 1 had no journal. */
+    static final int VERSION = 2;
 
-    /** a HashMap that matches name of the file
-     * that is in the add stage and the file blob code. */
-    private HashMap<String, String> addNameCodeMap;
+    /** Records journaled beyond the size of the stage before the file
+     * is rewritten. */
+    static final int JOURNAL_SLACK = 64;
+
+    /** Journal record of a file staged for addition. */
+    private static final int ADD = 1;
+
+    /** Journal record of a file no longer staged for addition. */
+    private static final int UNADD = 2;
+
+    /** Journal record of a file staged for removal. */
+    private static final int REMOVE = 3;
+
+    /** Journal record of a file no longer staged for removal. */
+    private static final int UNREMOVE = 4;
+
+    /** Journal record of the addition stage being cleared. */
+    private static final int CLEAR_ADDITIONS = 5;
+
+    /** Journal record of the removal stage being cleared. */
+    private static final int CLEAR_REMOVALS = 6;
+
+    /** code of the staged blob of each file staged for addition. */
+    private LinkedHashMap<String, String> additions;
+
+    /** files staged for removal. */
+    private LinkedHashSet<String> removals;
+
+    /** length of the stage file this stage was read from, or -1 if it
+     * must be rewritten. */
+    private transient long length;
+
+    /** number of journal records in that file. */
+    private transient int journaled;
+
+    /** records of the changes made since it was read. */
+    private transient Codec.Writer pending;
+
+    /** number of records in PENDING. */
+    private transient int pendingCount;
 
     /** Constructor of Stage. */
     public Stage() {
-        additionStage = new ArrayList<>();
-        removalStage = new ArrayList<>();
-        addNameCodeMap = new HashMap<>();
+        additions = new LinkedHashMap<>();
+        removals = new LinkedHashSet<>();
+        length = -1;
+        pending = new Codec.Writer();
     }
 
     /** Checks if that has been committed.
      * if not add to AS
-     * create a blob of the file and compare it with the last commit
-     * @param file input file
-     */
-    public void processFile(File file) throws IOException {
-        String fileName = file.getName();
-        Commit head = Commit.getHeadCommitObj();
-        HashMap<String, String> headMap = head.getNameBlobMap();
-        Blob newBlob = new Blob(file);
-        if (!headMap.containsKey(fileName)) {
-            additionStage.add(fileName);
-            addNameCodeMap.put(fileName, newBlob.code());
+     * compare the stored blob of the file with the last commit, and
+     * unstage the file if they are the same
+     * @param fileName path of the file from the working directory
+     * @param code sha1 code of its stored blob
+     * @param headMap blobs of the head commit, by path
+     */
+    public void processFile(String fileName, String code,
+                            Map<String, String> headMap) {
+        if (code.equals(headMap.get(fileName))) {
+            unstageAddition(fileName);
+            unstageRemoval(fileName);
         } else {
-            if (removalStage.contains(fileName)
-                    && headMap.get(fileName).equals(newBlob.code())) {
-                removalStage.remove(fileName);
-            } else if (!newBlob.equals(headMap.get(fileName))) {
-                if (additionStage.contains(fileName)) {
-                    additionStage.remove(fileName);
-                    addNameCodeMap.remove(fileName);
-                }
-                additionStage.add(fileName);
-                addNameCodeMap.put(fileName, newBlob.code());
-            }
+            stageAddition(fileName, code);
         }
     }
 
@@ -66,57 +116,117 @@ public class Stage implements Serializable {
      * @return if updated
      */
     public boolean hasUpdate() {
-        if (additionStage.isEmpty() && removalStage.isEmpty()) {
+        if (additions.isEmpty() && removals.isEmpty()) {
             return false;
         }
         return true;
     }
 
+    /**
+     * Stages a file for addition, after the files already staged.
+     * @param fileName path of the file
+     * @param code sha1 code of its stored blob
+     */
+    public void stageAddition(String fileName, String code) {
+        additions.remove(fileName);
+        additions.put(fileName, code);
+        journal(ADD).string(fileName).code(code);
+    }
+
+    /**
+     * Unstages a file staged for addition.
+     * @param fileName path of the file
+     */
+    public void unstageAddition(String fileName) {
+        if (additions.remove(fileName) != null) {
+            journal(UNADD).string(fileName);
+        }
+    }
+
+    /**
+     * Stages a file for removal.
+     * @param fileName path of the file
+     */
+    public void stageRemoval(String fileName) {
+        if (removals.add(fileName)) {
+            journal(REMOVE).string(fileName);
+        }
+    }
+
+    /**
+     * Unstages a file staged for removal.
+     * @param fileName path of the file
+     */
+    public void unstageRemoval(String fileName) {
+        if (removals.remove(fileName)) {
+            journal(UNREMOVE).string(fileName);
+        }
+    }
+
     /**
      * Clears addition stage.
      */
     public void clearAdditionStage() {
-        additionStage.clear();
-        addNameCodeMap.clear();
+        if (!additions.isEmpty()) {
+            additions.clear();
+            journal(CLEAR_ADDITIONS);
+        }
     }
 
     /**
      * Clears removal stage.
      */
     public void clearRemovalStage() {
-        removalStage.clear();
+        if (!removals.isEmpty()) {
+            removals.clear();
+            journal(CLEAR_REMOVALS);
+        }
     }
 
     /**
-     * get the addNameCodeMap instance variable.
-     * @return addNameCodeMap
+     * get the code of the staged blob of each file staged for addition.
+     * @return blobs by path, in the order they were staged
      */
-    public HashMap<String, String> getAddNameCodeMap() {
-        return addNameCodeMap;
+    public Map<String, String> getAddNameCodeMap() {
+        return Collections.unmodifiableMap(additions);
     }
 
     /**
-     * gets the additialStage instance variable.
-     * @return AdditionStage
+     * gets the files staged for addition.
+     * @return paths, in the order they were staged
      */
-    public ArrayList<String> getAdditionStage() {
-        return additionStage;
+    public Set<String> getAdditionStage() {
+        return Collections.unmodifiableSet(additions.keySet());
     }
 
     /**
-     * gets the removalStage instance variable.
-     * @return removalStage
+     * gets the files staged for removal.
+     * @return paths, in the order they were staged
      */
-    public ArrayList<String> getRemovalStage() {
-        return removalStage;
+    public Set<String> getRemovalStage() {
+        return Collections.unmodifiableSet(removals);
     }
 
     /**
-     * updates Stage object in the stage file.
+     * updates Stage object in the stage file. Only the changes made
+     * since it was read are appended, unless the file must be rewritten.
      * @param stage stage object.
      */
     public static void updateStage(Stage stage) {
-        Utils.writeObject(Files.STAGE, stage);
+        try {
+            if (stage.length < 0 || Files.STAGE.length() != stage.length
+                    || stage.size() == 0 && stage.pendingCount > 0
+                    || stage.journaled + stage.pendingCount
+                    > stage.size() + JOURNAL_SLACK) {
+                stage.rewrite(Files.STAGE);
+            } else if (stage.pendingCount > 0) {
+                stage.append(Files.STAGE);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        ObjectCache.put(Files.STAGE.getPath(), stamp(), stage,
+                Files.STAGE.length());
     }
 
 
@@ -125,6 +235,226 @@ public class Stage implements Serializable {
      * @return Stage from stage file
      */
     public static Stage getSTAGE() {
-        return Utils.readObject(Files.STAGE, Stage.class);
+        String stamp = stamp();
+        Stage stage = ObjectCache.get(Files.STAGE.getPath(), stamp,
+                Stage.class);
+        if (stage == null) {
+            stage = Codec.read(Files.STAGE, Stage.class);
+            ObjectCache.put(Files.STAGE.getPath(), stamp, stage,
+                    Files.STAGE.length());
+        }
+        return stage;
+    }
+
+    /**
+     * Forgets the stage read by this command if it holds changes that
+     * were never written, so that the next command the daemon runs
+     * reads the stage file again.
+     */
+    static void reset() {
+        Stage stage = ObjectCache.get(Files.STAGE.getPath(), null,
+                Stage.class);
+        if (stage != null && stage.pendingCount > 0) {
+            ObjectCache.remove(Files.STAGE.getPath());
+        }
+    }
+
+    /**
+     * Returns the snapshot of this stage, without a journal.
+     * @return bytes
+     */
+    @Override
+    public byte[] encode() {
+        Codec.Writer out = new Codec.Writer(Codec.STAGE, VERSION);
+        out.varint(additions.size());
+        for (Map.Entry<String, String> e : additions.entrySet()) {
+            out.string(e.getKey()).code(e.getValue());
+        }
+        out.varint(removals.size());
+        for (String name : removals) {
+            out.string(name);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads a stage encoded by encode, then the journal following it. A
+     * record cut short by a crash ends the journal.
+     * @param in reader past the header
+     * @return stage
+     */
+    static Stage decode(Codec.Reader in) {
+        Stage result = new Stage();
+        if (in.version() == 1) {
+            result.decodeVersion1(in);
+            return result;
+        } else if (in.version() != VERSION) {
+            throw Utils.error("Unsupported stage version %d.", in.version());
+        }
+        for (long i = in.varint(); i > 0; i -= 1) {
+            String name = in.string();
+            result.additions.put(name, in.code());
+        }
+        for (long i = in.varint(); i > 0; i -= 1) {
+            result.removals.add(in.string());
+        }
+        result.length = in.position();
+        while (in.hasRemaining()) {
+            try {
+                result.replay(in);
+            } catch (GitletException excp) {
+                break;
+            }
+            result.journaled += 1;
+            result.length = in.position();
+        }
+        return result;
+    }
+
+    /**
+     * Reads the rest of a stage of version 1, which listed additions,
+     * removals and then the blobs of the additions, sorted by name.
+     * @param in reader past the header
+     */
+    private void decodeVersion1(Codec.Reader in) {
+        ArrayList<String> names = new ArrayList<>();
+        for (long i = in.varint(); i > 0; i -= 1) {
+            names.add(in.string());
+        }
+        for (long i = in.varint(); i > 0; i -= 1) {
+            removals.add(in.string());
+        }
+        HashMap<String, String> codes = new HashMap<>();
+        for (long i = in.varint(); i > 0; i -= 1) {
+            String name = in.string();
+            codes.put(name, in.code());
+        }
+        for (String name : names) {
+            additions.put(name, codes.get(name));
+        }
+    }
+
+    /**
+     * Applies one journal record.
+     * @param in reader at the start of a record
+     */
+    private void replay(Codec.Reader in) {
+        int op = (int) in.varint();
+        switch (op) {
+        case ADD:
+            String name = in.string();
+            String code = in.code();
+            additions.remove(name);
+            additions.put(name, code);
+            break;
+        case UNADD:
+            additions.remove(in.string());
+            break;
+        case REMOVE:
+            removals.add(in.string());
+            break;
+        case UNREMOVE:
+            removals.remove(in.string());
+            break;
+        case CLEAR_ADDITIONS:
+            additions.clear();
+            break;
+        case CLEAR_REMOVALS:
+            removals.clear();
+            break;
+        default:
+            throw Utils.error("Unreadable object.");
+        }
+    }
+
+    /**
+     * Starts a journal record of a change.
+     * @param op kind of the change, such as ADD
+     * @return writer of the rest of the record
+     */
+    private Codec.Writer journal(int op) {
+        pendingCount += 1;
+        return pending.varint(op);
+    }
+
+    /**
+     * Returns the number of files staged.
+     * @return additions and removals
+     */
+    private int size() {
+        return additions.size() + removals.size();
+    }
+
+    /**
+     * Replaces FILE with the snapshot of this stage.
+     * @param file the stage file
+     * @throws IOException
+     */
+    private void rewrite(File file) throws IOException {
+        byte[] data = encode();
+        File tmp = File.createTempFile("stage", ".tmp", file.getParentFile());
+        try {
+            Utils.writeContents(tmp, data);
+            java.nio.file.Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tmp.delete();
+        }
+        length = data.length;
+        journaled = 0;
+        pending = new Codec.Writer();
+        pendingCount = 0;
+    }
+
+    /**
+     * Appends the records of the changes made since FILE was read.
+     * @param file the stage file
+     * @throws IOException
+     */
+    private void append(File file) throws IOException {
+        byte[] data = pending.toByteArray();
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.seek(length);
+            out.write(data);
+        }
+        length += data.length;
+        journaled += pendingCount;
+        pending = new Codec.Writer();
+        pendingCount = 0;
+    }
+
+    /**
+     * Reads a stage written by an older gitlet through Java
+     * serialization.
+     * @param in stream of the stage
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        List<String> names = (List<String>) fields.get("additionStage",
+                null);
+        List<String> removed = (List<String>) fields.get("removalStage",
+                null);
+        Map<String, String> codes = (Map<String, String>) fields.get(
+                "addNameCodeMap", null);
+        additions = new LinkedHashMap<>();
+        removals = new LinkedHashSet<>(removed);
+        for (String name : names) {
+            additions.put(name, codes.get(name));
+        }
+        length = -1;
+        pending = new Codec.Writer();
+    }
+
+    /**
+     * Returns the modification time and length of the stage file, which
+     * change whenever another command writes it.
+     * @return stamp of the stage file
+     */
+    private static String stamp() {
+        return Files.STAGE.lastModified() + "/" + Files.STAGE.length();
     }
 }
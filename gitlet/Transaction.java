@@ -0,0 +1,226 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A group of file writes that reach the disk together.
+ * Every file is first written to a temporary file in the .gitlet
+ * folder, and all of those are synced in one batch, along with the
+ * files written in place before it that it depends on, such as the
+ * blobs add stored. Then the objects and logs are renamed into place
+ * and their folders synced, as are the folders of those files, records
+ * are appended to journals, and only then are the refs renamed into
+ * place and their folders synced.
+ * A crash therefore leaves either the old refs, which never point to a
+ * missing or partly written object, or the new ones.
+ * @author Shelden Shi
+ */
+class Transaction {
+    /** folder holding the temporary files. */
+    private final File tmpDir;
+
+    /** contents of the objects and logs, by destination. */
+    private final LinkedHashMap<File, byte[]> files = new LinkedHashMap<>();
+
+    /** records to append, by journal. */
+    private final LinkedHashMap<File, List<byte[]>> records =
+            new LinkedHashMap<>();
+
+    /** contents of the refs, by destination. */
+    private final LinkedHashMap<File, byte[]> refs = new LinkedHashMap<>();
+
+    /** files already in place to sync with the batch. */
+    private final LinkedHashSet<File> synced = new LinkedHashSet<>();
+
+    /**
+     * Constructor.
+     * @param gitlet .gitlet folder of the repository being written
+     */
+    Transaction(File gitlet) {
+        tmpDir = gitlet;
+    }
+
+    /**
+     * Writes OBJ, encoded and compressed, to FILE when this transaction
+     * commits.
+     * @param file destination
+     * @param obj object to write
+     */
+    void writeObject(File file, Codec.Encodable obj) {
+        files.put(file, Compression.compress(obj.encode()));
+    }
+
+    /**
+     * Writes CONTENTS to FILE when this transaction commits.
+     * @param file destination, such as a log
+     * @param contents text to write
+     */
+    void writeContents(File file, String contents) {
+        files.put(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Appends RECORD to the journal FILE, after the objects and logs
+     * are in place and before the refs are. Every record of FILE must
+     * have the same length, so that a record cut short by a crash can
+     * be dropped before the next one is appended.
+     * @param file a journal
+     * @param record fixed-size record
+     */
+    void appendRecord(File file, byte[] record) {
+        records.computeIfAbsent(file, f -> new ArrayList<>()).add(record);
+    }
+
+    /**
+     * Writes CONTENTS to the ref FILE once every other file of this
+     * transaction is in place.
+     * @param file a branch head or HEAD
+     * @param contents text to write
+     */
+    void writeRef(File file, String contents) {
+        refs.put(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Syncs FILE, which was written in place before this transaction,
+     * with its batch, and the folder holding it and that folder's own
+     * folder before the refs are renamed. A missing FILE is skipped.
+     * @param file a file this transaction depends on, such as a blob
+     */
+    void sync(File file) {
+        synced.add(file);
+    }
+
+    /**
+     * Writes every file of this transaction.
+     * @throws IOException
+     */
+    void commit() throws IOException {
+        LinkedHashMap<File, File> written = new LinkedHashMap<>();
+        try {
+            ArrayList<FileChannel> channels = new ArrayList<>();
+            try {
+                for (Map<File, byte[]> group : List.of(files, refs)) {
+                    for (Map.Entry<File, byte[]> e : group.entrySet()) {
+                        File tmp = File.createTempFile("txn", ".tmp", tmpDir);
+                        written.put(e.getKey(), tmp);
+                        FileChannel channel = FileChannel.open(tmp.toPath(),
+                                StandardOpenOption.WRITE);
+                        channels.add(channel);
+                        ByteBuffer buf = ByteBuffer.wrap(e.getValue());
+                        while (buf.hasRemaining()) {
+                            channel.write(buf);
+                        }
+                    }
+                }
+                for (File file : synced) {
+                    try {
+                        channels.add(FileChannel.open(file.toPath(),
+                                StandardOpenOption.READ));
+                    } catch (NoSuchFileException excp) {
+                        continue;
+                    }
+                }
+                for (FileChannel channel : channels) {
+                    channel.force(false);
+                }
+            } finally {
+                for (FileChannel channel : channels) {
+                    channel.close();
+                }
+            }
+            rename(files.keySet(), written);
+            LinkedHashSet<File> dirs = new LinkedHashSet<>();
+            for (File file : synced) {
+                File dir = file.getAbsoluteFile().getParentFile();
+                dirs.add(dir);
+                dirs.add(dir.getParentFile());
+            }
+            syncDirs(dirs);
+            for (Map.Entry<File, List<byte[]>> e : records.entrySet()) {
+                append(e.getKey(), e.getValue());
+            }
+            rename(refs.keySet(), written);
+        } finally {
+            for (File tmp : written.values()) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Appends RECORDS to FILE and syncs it, first dropping any partial
+     * record at its end.
+     * @param file a journal
+     * @param list records of the same length
+     * @throws IOException
+     */
+    private static void append(File file, List<byte[]> list)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            long size = channel.size();
+            channel.truncate(size - size % list.get(0).length);
+            channel.position(channel.size());
+            for (byte[] record : list) {
+                ByteBuffer buf = ByteBuffer.wrap(record);
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+            }
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Renames the temporary files of DESTS into place, then syncs the
+     * folders holding them.
+     * @param dests destinations
+     * @param written temporary file of each destination
+     * @throws IOException
+     */
+    private static void rename(Iterable<File> dests,
+                               Map<File, File> written) throws IOException {
+        LinkedHashSet<File> dirs = new LinkedHashSet<>();
+        for (File dest : dests) {
+            File tmp = written.get(dest);
+            try {
+                java.nio.file.Files.move(tmp.toPath(), dest.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException excp) {
+                java.nio.file.Files.move(tmp.toPath(), dest.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            dirs.add(dest.getAbsoluteFile().getParentFile());
+        }
+        syncDirs(dirs);
+    }
+
+    /**
+     * Syncs the folders DIRS, so that the files renamed into them stay.
+     * @param dirs folders
+     */
+    private static void syncDirs(Iterable<File> dirs) {
+        for (File dir : dirs) {
+            try (FileChannel channel = FileChannel.open(dir.toPath(),
+                    StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (IOException excp) {
+                continue;
+            }
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package gitlet;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The files of one folder of a commit: the code of the blob of each
+ * file and the code of the tree of each subfolder, by name. Trees are
+ * stored through Codec, in .gitlet/trees, and named by the sha1 code of
+ * their encoding, so a folder that did not change between two commits
+ * is the same tree in both. A commit therefore only writes the trees of
+ * the folders it changed, and two commits are compared by walking only
+ * the subtrees whose codes differ.
+ * @author Shelden Shi
+ */
+class Tree implements Codec.Encodable {
+    /** Version of the encoding of trees. */
+    static final int VERSION = 1;
+
+    /** code of the blob of each file, by name. */
+    private final TreeMap<String, String> blobs = new TreeMap<>();
+
+    /** code of the tree of each subfolder, by name. */
+    private final TreeMap<String, String> trees = new TreeMap<>();
+
+    /**
+     * Returns the code of the blob of each file of this folder.
+     * @return blobs by name, sorted
+     */
+    Map<String, String> getBlobs() {
+        return blobs;
+    }
+
+    /**
+     * Returns the code of the tree of each subfolder of this folder.
+     * @return trees by name, sorted
+     */
+    Map<String, String> getTrees() {
+        return trees;
+    }
+
+    /**
+     * Returns the code of this tree.
+     * @return sha1 code
+     */
+    String code() {
+        return Utils.sha1(encode());
+    }
+
+    @Override
+    public byte[] encode() {
+        Codec.Writer out = new Codec.Writer(Codec.TREE, VERSION);
+        out.varint(blobs.size());
+        for (Map.Entry<String, String> e : blobs.entrySet()) {
+            out.string(e.getKey()).code(e.getValue());
+        }
+        out.varint(trees.size());
+        for (Map.Entry<String, String> e : trees.entrySet()) {
+            out.string(e.getKey()).code(e.getValue());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads a tree encoded by encode.
+     * @param in reader past the header
+     * @return tree
+     */
+    static Tree decode(Codec.Reader in) {
+        if (in.version() != VERSION) {
+            throw Utils.error("Unsupported tree version %d.", in.version());
+        }
+        Tree result = new Tree();
+        for (long i = in.varint(); i > 0; i -= 1) {
+            String name = in.string();
+            result.blobs.put(name, in.code());
+        }
+        for (long i = in.varint(); i > 0; i -= 1) {
+            String name = in.string();
+            result.trees.put(name, in.code());
+        }
+        return result;
+    }
+
+    /**
+     * Reads a tree.
+     * @param store store holding the tree
+     * @param code code of the tree, or null for an empty tree
+     * @return tree, shared through the object cache
+     */
+    static Tree read(ObjectStore store, String code) {
+        if (code == null) {
+            return new Tree();
+        }
+        return store.readObject(ObjectStore.TREE, code, Tree.class);
+    }
+
+    /**
+     * Writes the tree of BASE with CHANGES applied, along with every
+     * subtree that changed, as part of TX. Trees that did not change
+     * are shared with BASE.
+     * @param store store receiving the trees
+     * @param base code of the root tree changed, or null if empty
+     * @param changes code of the new blob of each path that changed,
+     *                or null for the paths removed
+     * @param tx transaction writing the trees
+     * @return code of the new root tree
+     */
+    static String write(ObjectStore store, String base,
+                        Map<String, String> changes, Transaction tx) {
+        String code = update(store, base, changes, tx);
+        if (code == null) {
+            code = store(store, new Tree(), tx);
+        }
+        return code;
+    }
+
+    /**
+     * Same as write, for a subtree.
+     * @param store store receiving the trees
+     * @param base code of the tree changed, or null if empty
+     * @param changes paths that changed, relative to this tree
+     * @param tx transaction writing the trees
+     * @return code of the new tree, or null if it is empty
+     */
+    private static String update(ObjectStore store, String base,
+                                 Map<String, String> changes,
+                                 Transaction tx) {
+        if (changes.isEmpty()) {
+            return base;
+        }
+        Tree old = read(store, base);
+        Tree tree = new Tree();
+        tree.blobs.putAll(old.blobs);
+        tree.trees.putAll(old.trees);
+        TreeMap<String, Map<String, String>> folders = new TreeMap<>();
+        for (Map.Entry<String, String> e : changes.entrySet()) {
+            String path = e.getKey();
+            int slash = path.indexOf('/');
+            if (slash != -1) {
+                folders.computeIfAbsent(path.substring(0, slash),
+                        k -> new HashMap<>()).put(
+                                path.substring(slash + 1), e.getValue());
+            } else if (e.getValue() == null) {
+                tree.blobs.remove(path);
+            } else {
+                tree.blobs.put(path, e.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> e : folders.entrySet()) {
+            String code = update(store, tree.trees.get(e.getKey()),
+                    e.getValue(), tx);
+            if (code == null) {
+                tree.trees.remove(e.getKey());
+            } else {
+                tree.trees.put(e.getKey(), code);
+            }
+        }
+        if (tree.blobs.isEmpty() && tree.trees.isEmpty()) {
+            return null;
+        }
+        return store(store, tree, tx);
+    }
+
+    /**
+     * Writes TREE as part of TX, unless STORE already holds it.
+     * @param store store receiving the tree
+     * @param tree tree to write
+     * @param tx transaction writing the tree
+     * @return code of the tree
+     */
+    private static String store(ObjectStore store, Tree tree,
+                                Transaction tx) {
+        String code = tree.code();
+        if (store.needsWrite(ObjectStore.TREE, code)) {
+            tx.writeObject(Files.newObjectFile(store.dir(ObjectStore.TREE),
+                    code), tree);
+            store.added(code);
+        }
+        return code;
+    }
+
+    /**
+     * Adds the code of the blob of every file under a tree to INTO.
+     * @param store store holding the trees
+     * @param code code of the tree
+     * @param prefix path of the folder of the tree, empty or ending in /
+     * @param into blobs by path
+     */
+    static void flatten(ObjectStore store, String code, String prefix,
+                        Map<String, String> into) {
+        Tree tree = read(store, code);
+        for (Map.Entry<String, String> e : tree.blobs.entrySet()) {
+            into.put(prefix + e.getKey(), e.getValue());
+        }
+        for (Map.Entry<String, String> e : tree.trees.entrySet()) {
+            flatten(store, e.getValue(), prefix + e.getKey() + "/", into);
+        }
+    }
+
+    /**
+     * Adds the path of every file whose blob differs between two trees
+     * to INTO, including files only one of them has. Subtrees with the
+     * same code are skipped without being read.
+     * @param store store holding the trees
+     * @param a code of a tree, or null if empty
+     * @param b code of another tree, or null if empty
+     * @param prefix path of the folder of the trees, empty or ending in /
+     * @param into paths that differ
+     */
+    static void diff(ObjectStore store, String a, String b, String prefix,
+                     Set<String> into) {
+        if (Objects.equals(a, b)) {
+            return;
+        }
+        Tree ta = read(store, a);
+        Tree tb = read(store, b);
+        TreeSet<String> names = new TreeSet<>(ta.blobs.keySet());
+        names.addAll(tb.blobs.keySet());
+        for (String name : names) {
+            if (!Objects.equals(ta.blobs.get(name), tb.blobs.get(name))) {
+                into.add(prefix + name);
+            }
+        }
+        names = new TreeSet<>(ta.trees.keySet());
+        names.addAll(tb.trees.keySet());
+        for (String name : names) {
+            diff(store, ta.trees.get(name), tb.trees.get(name),
+                    prefix + name + "/", into);
+        }
+    }
+}
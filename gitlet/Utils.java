@@ -6,6 +6,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
@@ -133,12 +134,13 @@ class Utils {
     }
 
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
+     *  FILE may be compressed or not (see Compression).
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
         try {
-            ObjectInputStream in =
-                new ObjectInputStream(new FileInputStream(file));
+            ObjectInputStream in = new ObjectInputStream(
+                Compression.inflate(new FileInputStream(file)));
             T result = expectedClass.cast(in.readObject());
             in.close();
             return result;
@@ -148,9 +150,22 @@ class Utils {
         }
     }
 
-    /** Write OBJ to FILE. */
+    /** Return an object of type T read from the uncompressed stream IN,
+     *  casting it to EXPECTEDCLASS, and close IN.
+     *  Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T readObject(InputStream in,
+                                                 Class<T> expectedClass) {
+        try (ObjectInputStream objects = new ObjectInputStream(in)) {
+            return expectedClass.cast(objects.readObject());
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Write OBJ to FILE, compressed. */
     static void writeObject(File file, Serializable obj) {
-        writeContents(file, serialize(obj));
+        writeContents(file, Compression.compress(serialize(obj)));
     }
 
     /* DIRECTORIES */
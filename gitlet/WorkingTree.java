@@ -0,0 +1,227 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The files of the working directory, named by their path from it with
+ * / between folders, such as "src/Main.java". Those paths are the names
+ * files are tracked under, so nested folders are versioned as trees.
+ * The working directory is listed by a fork/join walk, one task per
+ * folder, so that large trees are listed on every core at once.
+ * Hidden files and folders, .gitlet among them, are left out, and
+ * links to folders are not followed.
+ * While a Monitor watches the working directory, the listing kept in
+ * the index is brought up to date instead, by looking again only at
+ * what changed.
+ * @author Shelden Shi
+ */
+class WorkingTree {
+    /** Pool the walks run in. */
+    private static final ForkJoinPool POOL = ForkJoinPool.commonPool();
+
+    /**
+     * Returns the path of every file of the working directory.
+     * @return sorted paths
+     */
+    static List<String> paths() {
+        Index index = Index.local();
+        Monitor.Changes changes = Monitor.changes(index.token());
+        if (changes == null) {
+            index.unwatch(null, null);
+            return walk("");
+        }
+        List<String> snapshot = index.snapshot();
+        if (changes.paths() == null || snapshot == null) {
+            List<String> result = walk("");
+            index.unwatch(changes.token(), result);
+            return result;
+        }
+        TreeSet<String> result = new TreeSet<>(snapshot);
+        for (String path : changes.paths()) {
+            result.remove(path);
+            result.subSet(path + "/", path + "0").clear();
+            Path file = file(path).toPath();
+            if (java.nio.file.Files.isDirectory(file,
+                    LinkOption.NOFOLLOW_LINKS)) {
+                result.addAll(walk(path + "/"));
+            } else if (java.nio.file.Files.isRegularFile(file)) {
+                result.add(path);
+            }
+        }
+        List<String> paths = new ArrayList<>(result);
+        index.watch(changes.token(), changes.paths(), paths);
+        return paths;
+    }
+
+    /**
+     * Returns the paths of the working files ARG names: the file itself,
+     * every file under a folder, or, if ARG holds any of *?[{, every
+     * file whose path matches it as a glob pattern, such as "src/*.java"
+     * or "**.txt".
+     * @param arg file name, folder name or pattern given on the command
+     *            line
+     * @return sorted paths, empty if ARG names no file
+     */
+    static List<String> match(String arg) {
+        if (arg.matches(".*[*?\\[{].*")) {
+            String pattern = arg.startsWith("./") ? arg.substring(2) : arg;
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher(
+                    "glob:" + pattern);
+            List<String> result = new ArrayList<>();
+            for (String path : paths()) {
+                if (matcher.matches(Path.of(path))) {
+                    result.add(path);
+                }
+            }
+            return result;
+        }
+        Path root = Files.CWD.toPath().toAbsolutePath().normalize();
+        if (root.resolve(arg).normalize().equals(root)) {
+            return paths();
+        }
+        String path = path(arg);
+        File file = file(path);
+        if (file.isDirectory()) {
+            return walk(path + "/");
+        } else if (file.isFile()) {
+            return List.of(path);
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Returns the path of every file under the folder at PREFIX.
+     * @param prefix path of a folder, empty or ending in /
+     * @return sorted paths
+     */
+    private static List<String> walk(String prefix) {
+        List<String> result = POOL.invoke(new Walk(
+                file(prefix).toPath(), prefix));
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Returns the path of the file named ARG, which is relative to the
+     * working directory. Exits if ARG names a file outside of it.
+     * @param arg file name given on the command line
+     * @return path of the file, with / between folders
+     */
+    static String path(String arg) {
+        Path root = Files.CWD.toPath().toAbsolutePath().normalize();
+        Path path = root.resolve(arg).normalize();
+        if (!path.startsWith(root) || path.equals(root)
+                || path.startsWith(root.resolve(".gitlet"))) {
+            Main.exitWithError("File is outside the working directory.");
+        }
+        return root.relativize(path).toString()
+                .replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Returns the file at PATH.
+     * @param path path from the working directory
+     * @return file
+     */
+    static File file(String path) {
+        return Utils.join(Files.CWD, path);
+    }
+
+    /**
+     * Writes the contents of a blob to the file at PATH, creating the
+     * folders holding it first.
+     * @param blobCode sha1 code of the blob
+     * @param path path from the working directory
+     */
+    static void write(String blobCode, String path) {
+        File file = file(path);
+        file.getParentFile().mkdirs();
+        Blob.writeTo(blobCode, file);
+    }
+
+    /**
+     * Deletes the file at PATH, then the folders holding it that it
+     * left empty.
+     * @param path path from the working directory
+     * @return true iff the file was deleted
+     */
+    static boolean delete(String path) {
+        if (!Files.GITLET.isDirectory()) {
+            throw new IllegalArgumentException(
+                    "not .gitlet working directory");
+        }
+        File file = file(path);
+        if (file.isDirectory() || !file.delete()) {
+            return false;
+        }
+        for (File dir = file.getParentFile(); !dir.equals(Files.CWD)
+                && dir.delete(); dir = dir.getParentFile()) {
+            continue;
+        }
+        return true;
+    }
+
+    /** Lists the files under one folder. */
+    private static class Walk extends RecursiveTask<List<String>> {
+        /** folder listed. */
+        private final Path dir;
+
+        /** path of DIR, empty or ending in /. */
+        private final String prefix;
+
+        /**
+         * Constructor.
+         * @param dir folder to list
+         * @param prefix path of DIR, empty or ending in /
+         */
+        Walk(Path dir, String prefix) {
+            this.dir = dir;
+            this.prefix = prefix;
+        }
+
+        @Override
+        protected List<String> compute() {
+            ArrayList<String> result = new ArrayList<>();
+            ArrayList<Walk> folders = new ArrayList<>();
+            try (DirectoryStream<Path> entries =
+                         java.nio.file.Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    String name = entry.getFileName().toString();
+                    if (name.startsWith(".")) {
+                        continue;
+                    }
+                    BasicFileAttributes attrs =
+                            java.nio.file.Files.readAttributes(entry,
+                                    BasicFileAttributes.class,
+                                    LinkOption.NOFOLLOW_LINKS);
+                    if (attrs.isDirectory()) {
+                        folders.add(new Walk(entry, prefix + name + "/"));
+                    } else if (attrs.isRegularFile()
+                            || attrs.isSymbolicLink()
+                            && java.nio.file.Files.isRegularFile(entry)) {
+                        result.add(prefix + name);
+                    }
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            for (Walk folder : invokeAll(folders)) {
+                result.addAll(folder.join());
+            }
+            return result;
+        }
+    }
+}
@@ -1,6 +1,9 @@
 import sys, re
 from subprocess import \
-     check_output, PIPE, STDOUT, DEVNULL, CalledProcessError, TimeoutExpired
+     check_output, Popen, PIPE, STDOUT, DEVNULL, CalledProcessError, \
+     TimeoutExpired
+from tempfile import mkdtemp
+from time import sleep
 from os.path import abspath, basename, dirname, exists, join, splitext
 from getopt import getopt, GetoptError
 from os import chdir, environ, getcwd, mkdir, remove, access, W_OK
@@ -22,6 +25,8 @@ Usage: python3 tester.py OPTIONS TEST.in ...
        --tolerance=N  Set the maximum allowed edit distance between program
                       output and expected output to N (default 3).
        --verbose      Print extra information about execution.
+       --daemon       Run every gitlet command through gitlet.Client and
+                      a gitlet daemon started for the run.
 """
 
 USAGE = SHORT_USAGE + """\
@@ -61,6 +66,10 @@ The instructions each have one of the following forms:
           Python regular expressions and matched accordingly. The directory
           or JAR file containing the gitlet.Main program is assumed to be
           in directory DIR specifed by --progdir (default is ..).
+   & COMMAND OPERANDS
+          Start gitlet.Main with COMMAND OPERANDS in the background, for
+          commands that run until they are killed, such as watch.  Waits a
+          second for it to start, and stops it when the test ends.
    = NAME F
           Check that the file named NAME is identical to src/F, and report an
           error if not.
@@ -144,6 +153,38 @@ def doCopy(dest, src, dir):
     except OSError:
         raise ValueError("file {} could not be copied to {}".format(src, dest))
 
+def doStart(cmnd, dir):
+    full_cmnd = "{} {}".format(GITLET_COMMAND, cmnd)
+    proc = Popen(full_cmnd, shell=True, cwd=dir, stdin=DEVNULL,
+                 stdout=DEVNULL, stderr=DEVNULL)
+    sleep(1)
+    return proc
+
+def doStop(procs):
+    for proc in procs:
+        proc.terminate()
+        try:
+            proc.wait(timeout=5)
+        except TimeoutExpired:
+            proc.kill()
+            proc.wait()
+
+def startDaemon():
+    sock_dir = mkdtemp()
+    sock = join(sock_dir, "gitlet.sock")
+    proc = Popen("exec java -ea gitlet.Main daemon {}".format(sock),
+                 shell=True, stdin=DEVNULL, stdout=DEVNULL)
+    for n in range(100):
+        if exists(sock):
+            break
+        sleep(0.1)
+    else:
+        doStop([proc])
+        print("Could not start the gitlet daemon.", file=sys.stderr)
+        sys.exit(1)
+    return proc, sock_dir, "java -ea -Dgitlet.socket={} gitlet.Client" \
+        .format(sock)
+
 def doExecute(cmnd, dir, timeout):
     here = getcwd()
     out = ""
@@ -243,6 +284,7 @@ def doTest(test):
         print("Testing directory: {}".format(tmpdir))
     timeout = TIMEOUT
     defns = {}
+    background = []
 
     def do_substs(L):
         c = 0
@@ -325,6 +367,8 @@ def doTest(test):
                     print("ERROR ({})".format(msg))
                     reportDetails(test, included_files, line_num)
                     return False
+            elif Match(r'&\s*(.*)', line):
+                background.append(doStart(Group(1), cdir))
             elif Match(r'=\s*(\S+)\s+(\S+)', line):
                 if not correctFileOutput(Group(1), Group(2), cdir):
                     print("ERROR (file {} has incorrect content)"
@@ -347,6 +391,7 @@ def doTest(test):
             else:
                 raise ValueError("bad test line at {}".format(line_num))
     finally:
+        doStop(background)
         if not keep:
             cleanTempDir(tmpdir)
 
@@ -357,12 +402,13 @@ if __name__ == "__main__":
     verbose = False
     src_dir = 'src'
     output_tolerance = 3
+    daemon = False
 
     try:
         opts, files = \
             getopt(sys.argv[1:], '',
                    ['show=', 'keep', 'progdir=', 'verbose', 'src=',
-                    'tolerance='])
+                    'tolerance=', 'daemon'])
         for opt, val in opts:
             if opt == '--show':
                 val = val.lower()
@@ -382,6 +428,8 @@ if __name__ == "__main__":
                 verbose = True
             elif opt == "--tolerance":
                 output_tolerance = int(val)
+            elif opt == "--daemon":
+                daemon = True
         if prog_dir is None:
             prog_dir = abspath(getcwd())
             k = 10
@@ -406,22 +454,32 @@ if __name__ == "__main__":
         environ['CLASSPATH'] = "{}:{}".format(prog_dir, environ['CLASSPATH'])
         GITLET_COMMAND = 'exec ' + GITLET_COMMAND
 
+    daemon_proc = None
+    if daemon:
+        daemon_proc, sock_dir, GITLET_COMMAND = startDaemon()
+        GITLET_COMMAND = 'exec ' + GITLET_COMMAND
+
     num_tests = len(files)
     errs = 0
     fails = 0
 
-    for test in files:
-        try:
-            if not exists(test):
-                num_tests -= 1
-            elif not doTest(test):
-                errs += 1
-                if type(show) is int:
-                    show -= 1
-        except ValueError as excp:
-            print("FAILED ({})".format(excp.args[0]))
-            fails += 1
-                  
+    try:
+        for test in files:
+            try:
+                if not exists(test):
+                    num_tests -= 1
+                elif not doTest(test):
+                    errs += 1
+                    if type(show) is int:
+                        show -= 1
+            except ValueError as excp:
+                print("FAILED ({})".format(excp.args[0]))
+                fails += 1
+    finally:
+        if daemon_proc:
+            doStop([daemon_proc])
+            rmtree(sock_dir, ignore_errors=True)
+
     print()
     print("Ran {} tests. ".format(num_tests), end="")
     if errs == fails == 0: